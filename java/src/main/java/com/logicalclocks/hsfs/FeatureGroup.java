@@ -22,6 +22,7 @@ import com.logicalclocks.hsfs.constructor.Query;
 import com.logicalclocks.hsfs.engine.CodeEngine;
 import com.logicalclocks.hsfs.engine.FeatureGroupEngine;
 import com.logicalclocks.hsfs.engine.FeatureGroupUtils;
+import com.logicalclocks.hsfs.engine.SparkEngine;
 import com.logicalclocks.hsfs.metadata.FeatureGroupBase;
 import com.logicalclocks.hsfs.engine.StatisticsEngine;
 import com.logicalclocks.hsfs.metadata.Expectation;
@@ -97,7 +98,9 @@ public class FeatureGroup extends FeatureGroupBase {
                       List<String> primaryKeys, List<String> partitionKeys, String hudiPrecombineKey,
                       boolean onlineEnabled, TimeTravelFormat timeTravelFormat, List<Feature> features,
                       StatisticsConfig statisticsConfig,  ValidationType validationType,
-                      scala.collection.Seq<Expectation> expectations, String onlineTopicName, String eventTime) {
+                      scala.collection.Seq<Expectation> expectations, String onlineTopicName, String eventTime,
+                      HudiTableType hudiTableType, HudiIndexConfig hudiIndexConfig,
+                      Boolean hudiMetadataEnabled, HudiRetentionPolicy hudiRetentionPolicy) {
     this.featureStore = featureStore;
     this.name = name;
     this.version = version;
@@ -120,6 +123,10 @@ public class FeatureGroup extends FeatureGroupBase {
     }
     this.onlineTopicName = onlineTopicName;
     this.eventTime = eventTime;
+    this.hudiTableType = hudiTableType;
+    this.hudiIndexConfig = hudiIndexConfig;
+    this.hudiMetadataEnabled = hudiMetadataEnabled;
+    this.hudiRetentionPolicy = hudiRetentionPolicy;
   }
 
   public FeatureGroup() {
@@ -241,12 +248,60 @@ public class FeatureGroup extends FeatureGroupBase {
 
   public void save(Dataset<Row> featureData, Map<String, String> writeOptions)
       throws FeatureStoreException, IOException, ParseException {
-    featureGroupEngine.save(this, featureData, partitionKeys, hudiPrecombineKey,
+    // keep the input persisted until the statistics are computed, they are computed from the same data
+    Dataset<Row> dataset = SparkEngine.getInstance().sanitizeFeatureNames(featureData);
+    boolean persisted = SparkEngine.getInstance().persistWriteInput(dataset, writeOptions);
+    try {
+      featureGroupEngine.save(this, dataset, partitionKeys, hudiPrecombineKey,
+          writeOptions);
+      codeEngine.saveCode(this);
+      if (statisticsConfig.getEnabled()) {
+        statisticsEngine.computeStatistics(this, dataset, null);
+      }
+    } finally {
+      if (persisted) {
+        dataset.unpersist();
+      }
+    }
+  }
+
+  /**
+   * Backfill the offline feature group in chunks, each chunk is committed separately. A backfill that fails can be
+   * restarted with the same backfill id and input, the chunks which were already committed are skipped. The feature
+   * group is created if it doesn't exist yet. Statistics are computed once all chunks are committed.
+   *
+   * @param featureData dataframe to backfill
+   * @param backfillId identifies the backfill across restarts
+   * @throws FeatureStoreException
+   * @throws IOException
+   * @throws ParseException
+   */
+  public void backfill(Dataset<Row> featureData, String backfillId)
+      throws FeatureStoreException, IOException, ParseException {
+    backfill(featureData, backfillId, null, null);
+  }
+
+  /**
+   * Backfill the offline feature group in chunks, each chunk is committed separately. A backfill that fails can be
+   * restarted with the same backfill id and input, the chunks which were already committed are skipped. The feature
+   * group is created if it doesn't exist yet. Statistics are computed once all chunks are committed.
+   *
+   * @param featureData dataframe to backfill
+   * @param backfillId identifies the backfill across restarts
+   * @param numChunks split the input into this number of primary key ranges, by default a partitioned feature group
+   *                  is backfilled partition by partition
+   * @param writeOptions additional write options
+   * @throws FeatureStoreException
+   * @throws IOException
+   * @throws ParseException
+   */
+  public void backfill(Dataset<Row> featureData, String backfillId, Integer numChunks,
+                       Map<String, String> writeOptions)
+      throws FeatureStoreException, IOException, ParseException {
+    featureGroupEngine.backfill(this, featureData, partitionKeys, hudiPrecombineKey, backfillId, numChunks,
         writeOptions);
     codeEngine.saveCode(this);
-    if (statisticsConfig.getEnabled()) {
-      statisticsEngine.computeStatistics(this, featureData, null);
-    }
+    computeStatistics();
   }
 
   public void insert(Dataset<Row> featureData) throws IOException, FeatureStoreException, ParseException {
@@ -397,6 +452,40 @@ public class FeatureGroup extends FeatureGroupBase {
         timeout, checkpointLocation, writeOptions);
   }
 
+  /**
+   * Insert a streaming dataframe in the Feature group. Each micro-batch is upserted into the offline storage and, if
+   * storage is null and online storage is enabled, also written to the online storage. Batches that are replayed
+   * from the checkpoint after a failure are not committed twice to the offline storage.
+   *
+   * @param featureData streaming dataframe
+   * @param storage `OFFLINE` to only write to the offline storage, `ONLINE` to only write to the online storage,
+   *                null to write to both
+   * @param queryName name of the streaming query
+   * @return streaming query
+   * @throws FeatureStoreException
+   * @throws IOException
+   * @throws StreamingQueryException
+   * @throws TimeoutException
+   */
+  public StreamingQuery insertStream(Dataset<Row> featureData, Storage storage, String queryName)
+      throws StreamingQueryException, IOException, FeatureStoreException, TimeoutException {
+    return insertStream(featureData, storage, queryName, "append", false, null, null, null);
+  }
+
+  public StreamingQuery insertStream(Dataset<Row> featureData, Storage storage, String queryName, String outputMode,
+                                     boolean awaitTermination, Long timeout, String checkpointLocation,
+                                     Map<String, String> writeOptions)
+      throws FeatureStoreException, IOException, StreamingQueryException, TimeoutException {
+    if (!featureData.isStreaming()) {
+      throw new FeatureStoreException(
+          "Features have to be a streaming type spark dataframe. Use `insert()` method instead.");
+    }
+    LOGGER.info("StatisticsWarning: Stream ingestion for feature group `" + name + "`, with version `" + version
+        + "` will not compute statistics.");
+    return featureGroupEngine.insertStream(this, featureData, storage, queryName, outputMode, awaitTermination,
+        timeout, checkpointLocation, writeOptions);
+  }
+
   public void commitDeleteRecord(Dataset<Row> featureData)
       throws FeatureStoreException, IOException, ParseException {
     utils.commitDelete(this, featureData, null);
@@ -407,6 +496,67 @@ public class FeatureGroup extends FeatureGroupBase {
     utils.commitDelete(this, featureData, writeOptions);
   }
 
+  /**
+   * Compact the log files of a merge-on-read feature group into new base files. The compaction commit is registered
+   * with Hopsworks.
+   *
+   * @return instant of the compaction, or null if there was nothing to compact
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public String compact() throws FeatureStoreException, IOException {
+    return utils.compact(this, null);
+  }
+
+  public String compact(Map<String, String> writeOptions) throws FeatureStoreException, IOException {
+    return utils.compact(this, writeOptions);
+  }
+
+  /**
+   * Rewrite the small files of the feature group into files of the target size, sorted by the primary key. Writes
+   * which update file groups pending clustering fail, run it between writes. The clustering commit is registered with
+   * Hopsworks.
+   *
+   * @return instant of the clustering, or null if there was nothing to cluster
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public String cluster() throws FeatureStoreException, IOException {
+    return utils.cluster(this, null, null, null);
+  }
+
+  /**
+   * Rewrite the small files of the feature group into files of the target size, sorted by the given columns. Writes
+   * which update file groups pending clustering fail, run it between writes. The clustering commit is registered with
+   * Hopsworks.
+   *
+   * @param sortColumns columns to sort the records by, the primary key if null
+   * @param targetFileSize target size of the files in bytes
+   * @param writeOptions additional write options
+   * @return instant of the clustering, or null if there was nothing to cluster
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public String cluster(List<String> sortColumns, Long targetFileSize, Map<String, String> writeOptions)
+      throws FeatureStoreException, IOException {
+    return utils.cluster(this, sortColumns, targetFileSize, writeOptions);
+  }
+
+  /**
+   * Delete the file versions of the feature group which are no longer needed by its retention policy, the cleaning
+   * otherwise runs after every write.
+   *
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public void clean() throws FeatureStoreException, IOException {
+    utils.clean(this, null);
+  }
+
+  public void clean(Map<String, String> writeOptions) throws FeatureStoreException, IOException {
+    utils.clean(this, writeOptions);
+  }
+
   /**
    * Return commit details.
    *
@@ -454,6 +604,31 @@ public class FeatureGroup extends FeatureGroupBase {
     return utils.commitDetailsByWallclockTime(this, wallclockTime, limit);
   }
 
+  /**
+   * Return the commits of the feature group, latest first.
+   *
+   * @param limit number of commits to return, null for all commits.
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public List<FeatureGroupCommit> commitHistory(Integer limit)
+      throws IOException, FeatureStoreException, ParseException {
+    return utils.getCommitHistory(this, null, limit);
+  }
+
+  /**
+   * Return the commits of the feature group made at or before a point in time, latest first.
+   *
+   * @param wallclockTime point in time.
+   * @param limit number of commits to return, null for all commits.
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public List<FeatureGroupCommit> commitHistory(String wallclockTime, Integer limit)
+      throws IOException, FeatureStoreException, ParseException {
+    return utils.getCommitHistory(this, wallclockTime, limit);
+  }
+
   @JsonIgnore
   public String getAvroSchema() throws FeatureStoreException, IOException {
     if (avroSchema == null) {
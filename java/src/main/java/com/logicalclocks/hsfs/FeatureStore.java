@@ -17,6 +17,7 @@
 package com.logicalclocks.hsfs;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.logicalclocks.hsfs.engine.FeatureGroupEngine;
 import com.logicalclocks.hsfs.engine.SparkEngine;
 import com.logicalclocks.hsfs.metadata.Expectation;
 import com.logicalclocks.hsfs.metadata.ExpectationsApi;
@@ -26,13 +27,17 @@ import com.logicalclocks.hsfs.metadata.TrainingDatasetApi;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scala.collection.JavaConverters;
 
 import java.io.IOException;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class FeatureStore {
 
@@ -54,6 +59,7 @@ public class FeatureStore {
   private TrainingDatasetApi trainingDatasetApi;
   private StorageConnectorApi storageConnectorApi;
   private ExpectationsApi expectationsApi;
+  private FeatureGroupEngine featureGroupEngine;
 
   private static final Logger LOGGER = LoggerFactory.getLogger(FeatureStore.class);
 
@@ -64,6 +70,7 @@ public class FeatureStore {
     trainingDatasetApi = new TrainingDatasetApi();
     storageConnectorApi = new StorageConnectorApi();
     expectationsApi = new ExpectationsApi();
+    featureGroupEngine = new FeatureGroupEngine();
   }
 
   /**
@@ -224,6 +231,72 @@ public class FeatureStore {
     return (StorageConnector.GcsConnector) storageConnectorApi.getByName(this, name);
   }
 
+  /**
+   * Insert dataframes into several feature groups concurrently, sharing the Spark session. Each insert behaves as
+   * `FeatureGroup.insert`, the write fails after all inserts completed if any of them failed.
+   *
+   * @param featureGroupData dataframe to insert per feature group
+   * @param writeOptions write options applied to every insert
+   * @param parallelism maximum number of concurrent inserts
+   * @throws FeatureStoreException
+   * @throws IOException
+   * @throws ParseException
+   */
+  public void insert(Map<FeatureGroup, Dataset<Row>> featureGroupData, Map<String, String> writeOptions,
+                     int parallelism) throws FeatureStoreException, IOException, ParseException {
+    featureGroupEngine.insertAll(featureGroupData, null, false, writeOptions, parallelism);
+  }
+
+  /**
+   * Insert dataframes into several feature groups concurrently, running all inserts at the same time.
+   *
+   * @param featureGroupData dataframe to insert per feature group
+   * @throws FeatureStoreException
+   * @throws IOException
+   * @throws ParseException
+   */
+  public void insert(Map<FeatureGroup, Dataset<Row>> featureGroupData)
+      throws FeatureStoreException, IOException, ParseException {
+    insert(featureGroupData, null, featureGroupData.size());
+  }
+
+  /**
+   * Upsert dataframes into several HUDI feature groups together. The writes run concurrently and their commits are
+   * registered with Hopsworks once all writes succeeded. If a write or the registration of a commit fails, the
+   * commits of all feature groups are rolled back. Only the offline storage is written.
+   *
+   * <p>The writes are not atomic. Readers of the Hudi tables see the commit of a write as soon as it completed and
+   * until it is rolled back. Commits registered with Hopsworks before a failed registration stay in the commit
+   * history of their feature groups, although their data is rolled back.
+   *
+   * @param featureGroupData dataframe to upsert per feature group
+   * @param writeOptions write options applied to every write
+   * @param parallelism maximum number of concurrent writes
+   * @throws FeatureStoreException
+   * @throws IOException
+   * @throws ParseException
+   */
+  public void insertTransaction(Map<FeatureGroup, Dataset<Row>> featureGroupData, Map<String, String> writeOptions,
+                                int parallelism) throws FeatureStoreException, IOException, ParseException {
+    featureGroupEngine.insertTransaction(featureGroupData, writeOptions, parallelism);
+    for (FeatureGroup featureGroup : featureGroupData.keySet()) {
+      featureGroup.computeStatistics();
+    }
+  }
+
+  /**
+   * Upsert dataframes into several HUDI feature groups together, running all writes at the same time.
+   *
+   * @param featureGroupData dataframe to upsert per feature group
+   * @throws FeatureStoreException
+   * @throws IOException
+   * @throws ParseException
+   */
+  public void insertTransaction(Map<FeatureGroup, Dataset<Row>> featureGroupData)
+      throws FeatureStoreException, IOException, ParseException {
+    insertTransaction(featureGroupData, null, featureGroupData.size());
+  }
+
   public FeatureGroup.FeatureGroupBuilder createFeatureGroup() {
     return FeatureGroup.builder()
         .featureStore(this);
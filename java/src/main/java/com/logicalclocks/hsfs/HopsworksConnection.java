@@ -17,6 +17,7 @@
 package com.logicalclocks.hsfs;
 
 import com.google.common.base.Strings;
+import com.logicalclocks.hsfs.engine.OnlineQueryEngine;
 import com.logicalclocks.hsfs.metadata.FeatureStoreApi;
 import com.logicalclocks.hsfs.metadata.HopsworksClient;
 import com.logicalclocks.hsfs.metadata.ProjectApi;
@@ -67,6 +68,9 @@ public class HopsworksConnection implements Closeable {
   @Getter
   private String apiKeyValue;
 
+  @Getter
+  private boolean hudiMetadataEnabled;
+
   private FeatureStoreApi featureStoreApi = new FeatureStoreApi();
   private ProjectApi projectApi = new ProjectApi();
   private RulesApi rulesApi = new RulesApi();
@@ -76,7 +80,8 @@ public class HopsworksConnection implements Closeable {
   @Builder
   public HopsworksConnection(String host, int port, String project, Region region, SecretStore secretStore,
                              boolean hostnameVerification, String trustStorePath,
-                             String certPath, String apiKeyFilePath, String apiKeyValue)
+                             String certPath, String apiKeyFilePath, String apiKeyValue,
+                             boolean hudiMetadataEnabled)
       throws IOException, FeatureStoreException {
     this.host = host;
     this.port = port;
@@ -88,11 +93,13 @@ public class HopsworksConnection implements Closeable {
     this.certPath = certPath;
     this.apiKeyFilePath = apiKeyFilePath;
     this.apiKeyValue = apiKeyValue;
+    this.hudiMetadataEnabled = hudiMetadataEnabled;
 
     HopsworksClient.setupHopsworksClient(host, port, region, secretStore,
         hostnameVerification, trustStorePath, this.apiKeyFilePath, this.apiKeyValue);
     this.projectObj = getProject();
     HopsworksClient.getInstance().setProject(this.projectObj);
+    HopsworksClient.getInstance().setHudiMetadataEnabled(hudiMetadataEnabled);
   }
 
   /**
@@ -133,6 +140,7 @@ public class HopsworksConnection implements Closeable {
    */
   public void close() {
     // Close the client
+    OnlineQueryEngine.closeInstance();
   }
 
   private Project getProject() throws IOException, FeatureStoreException {
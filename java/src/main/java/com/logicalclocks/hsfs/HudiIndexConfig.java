@@ -0,0 +1,43 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package com.logicalclocks.hsfs;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class HudiIndexConfig {
+  // defaults to BLOOM, the Hudi default index
+  @Getter
+  @Setter
+  private HudiIndexType type;
+
+  // false positive probability of the bloom filters
+  @Getter
+  @Setter
+  private Double bloomFpp;
+
+  // expected number of distinct record keys of the feature group, used to size the index
+  @Getter
+  @Setter
+  private Long expectedKeyCardinality;
+}
@@ -19,7 +19,8 @@ package com.logicalclocks.hsfs;
 public enum HudiOperationType {
   BULK_INSERT("bulk_insert"),
   INSERT("insert"),
-  UPSERT("upsert");
+  UPSERT("upsert"),
+  DELETE("delete");
 
   private final String value;
 
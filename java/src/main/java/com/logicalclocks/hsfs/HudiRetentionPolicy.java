@@ -0,0 +1,45 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package com.logicalclocks.hsfs;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Retention of the offline data of a time travel enabled feature group. The cleaner either keeps the file versions
+ * needed to read the last commits, the commits of the last hours, or a number of versions of every file. If several
+ * are set, file versions take precedence over hours and hours over commits.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class HudiRetentionPolicy {
+  @Getter
+  @Setter
+  private Integer commitsRetained;
+
+  @Getter
+  @Setter
+  private Integer hoursRetained;
+
+  @Getter
+  @Setter
+  private Integer fileVersionsRetained;
+}
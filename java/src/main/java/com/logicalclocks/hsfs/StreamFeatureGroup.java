@@ -106,7 +106,9 @@ public class StreamFeatureGroup extends FeatureGroupBase {
                             List<String> primaryKeys, List<String> partitionKeys, String hudiPrecombineKey,
                             boolean onlineEnabled, List<Feature> features,
                             StatisticsConfig statisticsConfig, ValidationType validationType,
-                            scala.collection.Seq<Expectation> expectations, String onlineTopicName, String eventTime) {
+                            scala.collection.Seq<Expectation> expectations, String onlineTopicName, String eventTime,
+                            HudiTableType hudiTableType, HudiIndexConfig hudiIndexConfig,
+                            Boolean hudiMetadataEnabled, HudiRetentionPolicy hudiRetentionPolicy) {
     this.featureStore = featureStore;
     this.name = name;
     this.version = version;
@@ -127,6 +129,10 @@ public class StreamFeatureGroup extends FeatureGroupBase {
     }
     this.onlineTopicName = onlineTopicName;
     this.eventTime = eventTime;
+    this.hudiTableType = hudiTableType;
+    this.hudiIndexConfig = hudiIndexConfig;
+    this.hudiMetadataEnabled = hudiMetadataEnabled;
+    this.hudiRetentionPolicy = hudiRetentionPolicy;
   }
 
   // used for updates
@@ -310,6 +316,67 @@ public class StreamFeatureGroup extends FeatureGroupBase {
     utils.commitDelete(this, featureData, writeOptions);
   }
 
+  /**
+   * Compact the log files of a merge-on-read feature group into new base files. The compaction commit is registered
+   * with Hopsworks.
+   *
+   * @return instant of the compaction, or null if there was nothing to compact
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public String compact() throws FeatureStoreException, IOException {
+    return utils.compact(this, null);
+  }
+
+  public String compact(Map<String, String> writeOptions) throws FeatureStoreException, IOException {
+    return utils.compact(this, writeOptions);
+  }
+
+  /**
+   * Rewrite the small files of the feature group into files of the target size, sorted by the primary key. Writes
+   * which update file groups pending clustering fail, run it between writes. The clustering commit is registered with
+   * Hopsworks.
+   *
+   * @return instant of the clustering, or null if there was nothing to cluster
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public String cluster() throws FeatureStoreException, IOException {
+    return utils.cluster(this, null, null, null);
+  }
+
+  /**
+   * Rewrite the small files of the feature group into files of the target size, sorted by the given columns. Writes
+   * which update file groups pending clustering fail, run it between writes. The clustering commit is registered with
+   * Hopsworks.
+   *
+   * @param sortColumns columns to sort the records by, the primary key if null
+   * @param targetFileSize target size of the files in bytes
+   * @param writeOptions additional write options
+   * @return instant of the clustering, or null if there was nothing to cluster
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public String cluster(List<String> sortColumns, Long targetFileSize, Map<String, String> writeOptions)
+      throws FeatureStoreException, IOException {
+    return utils.cluster(this, sortColumns, targetFileSize, writeOptions);
+  }
+
+  /**
+   * Delete the file versions of the feature group which are no longer needed by its retention policy, the cleaning
+   * otherwise runs after every write.
+   *
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public void clean() throws FeatureStoreException, IOException {
+    utils.clean(this, null);
+  }
+
+  public void clean(Map<String, String> writeOptions) throws FeatureStoreException, IOException {
+    utils.clean(this, writeOptions);
+  }
+
   /**
    * Return commit details.
    *
@@ -355,6 +422,31 @@ public class StreamFeatureGroup extends FeatureGroupBase {
     return utils.commitDetailsByWallclockTime(this, wallclockTime, limit);
   }
 
+  /**
+   * Return the commits of the feature group, latest first.
+   *
+   * @param limit number of commits to return, null for all commits.
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public List<FeatureGroupCommit> commitHistory(Integer limit)
+      throws IOException, FeatureStoreException, ParseException {
+    return utils.getCommitHistory(this, null, limit);
+  }
+
+  /**
+   * Return the commits of the feature group made at or before a point in time, latest first.
+   *
+   * @param wallclockTime point in time.
+   * @param limit number of commits to return, null for all commits.
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public List<FeatureGroupCommit> commitHistory(String wallclockTime, Integer limit)
+      throws IOException, FeatureStoreException, ParseException {
+    return utils.getCommitHistory(this, wallclockTime, limit);
+  }
+
   @JsonIgnore
   public String getAvroSchema() throws FeatureStoreException, IOException {
     if (avroSchema == null) {
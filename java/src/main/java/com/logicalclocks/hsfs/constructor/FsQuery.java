@@ -29,6 +29,7 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -89,6 +90,10 @@ public class FsQuery {
   }
 
   public void registerHudiFeatureGroups(Map<String, String> readOptions) {
+    registerHudiFeatureGroups(readOptions, new HashMap<>());
+  }
+
+  public void registerHudiFeatureGroups(Map<String, String> readOptions, Map<String, String> joinHints) {
     for (HudiFeatureGroupAlias hudiFeatureGroupAlias : hudiCachedFeatureGroups) {
       String alias = hudiFeatureGroupAlias.getAlias();
       FeatureGroupBase featureGroup = hudiFeatureGroupAlias.getFeatureGroup();
@@ -96,7 +101,7 @@ public class FsQuery {
       SparkEngine.getInstance().registerHudiTemporaryTable(featureGroup, alias,
           hudiFeatureGroupAlias.getLeftFeatureGroupStartTimestamp(),
           hudiFeatureGroupAlias.getLeftFeatureGroupEndTimestamp(),
-          readOptions);
+          readOptions, joinHints.get(alias));
     }
   }
 }
@@ -16,6 +16,7 @@
 
 package com.logicalclocks.hsfs.constructor;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.logicalclocks.hsfs.Feature;
 import lombok.Getter;
 import lombok.Setter;
@@ -46,6 +47,12 @@ public class Join {
   @Setter
   private String prefix;
 
+  // join strategies are applied client side when the query is executed
+  @JsonIgnore
+  @Getter
+  @Setter
+  private JoinStrategy strategy;
+
   public Join(Query query, JoinType joinType, String prefix) {
     this.query = query;
     this.joinType = joinType;
@@ -0,0 +1,37 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package com.logicalclocks.hsfs.constructor;
+
+public enum JoinStrategy {
+  // resolve the strategy from the feature group statistics when the query is executed
+  AUTO(null),
+  BROADCAST("broadcast"),
+  SHUFFLE_HASH("shuffle_hash"),
+  SORT_MERGE("merge"),
+  // sort merge join with adaptive skew join handling enabled, the hint alias tells it apart from SORT_MERGE
+  SKEWED("shuffle_merge");
+
+  private final String sparkHint;
+
+  private JoinStrategy(String sparkHint) {
+    this.sparkHint = sparkHint;
+  }
+
+  public String getSparkHint() {
+    return sparkHint;
+  }
+}
@@ -23,15 +23,20 @@ import com.logicalclocks.hsfs.Storage;
 import com.logicalclocks.hsfs.StorageConnector;
 import com.logicalclocks.hsfs.engine.SparkEngine;
 import com.logicalclocks.hsfs.engine.FeatureGroupUtils;
+import com.logicalclocks.hsfs.engine.OnlineQueryEngine;
+import com.logicalclocks.hsfs.engine.QueryEngine;
 import com.logicalclocks.hsfs.metadata.FeatureGroupBase;
 import com.logicalclocks.hsfs.metadata.QueryConstructorApi;
 import com.logicalclocks.hsfs.metadata.StorageConnectorApi;
 import lombok.Getter;
 import lombok.Setter;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
@@ -64,9 +69,13 @@ public class Query {
   @Setter
   private Boolean hiveEngine = false;
 
+  private boolean resultCacheEnabled = false;
+  private String resultCacheLocation;
+
   private QueryConstructorApi queryConstructorApi;
   private StorageConnectorApi storageConnectorApi;
   private FeatureGroupUtils utils = new FeatureGroupUtils();
+  private QueryEngine queryEngine = new QueryEngine();
 
   public Query(FeatureGroupBase leftFeatureGroup, List<Feature> leftFeatures) {
     this.leftFeatureGroup = leftFeatureGroup;
@@ -167,6 +176,37 @@ public class Query {
     return this;
   }
 
+  /**
+   * Set the strategy Spark should use to execute the last join added to the Query.
+   * With JoinStrategy.AUTO the strategy is chosen from the statistics of the joined feature groups: small feature
+   * groups are broadcast and joins on skewed keys are executed with adaptive skew handling.
+   * Strategies can only be set on joins with time travel enabled feature groups.
+   *
+   * @param strategy join strategy
+   * @return Query
+   * @throws FeatureStoreException if the Query has no joins
+   */
+  public Query hint(JoinStrategy strategy) throws FeatureStoreException {
+    if (joins.isEmpty()) {
+      throw new FeatureStoreException("Join strategies can only be set on a Query with joins");
+    }
+    joins.get(joins.size() - 1).setStrategy(strategy);
+    return this;
+  }
+
+  /**
+   * Set the strategy Spark should use to execute all joins of the Query.
+   *
+   * @param strategy join strategy
+   * @return Query
+   */
+  public Query hintAll(JoinStrategy strategy) {
+    for (Join join : joins) {
+      join.setStrategy(strategy);
+    }
+    return this;
+  }
+
   /**
    * Perform time travel on the given Query.
    * This method returns a new Query object at the specified point in time.
@@ -206,6 +246,55 @@ public class Query {
     return this;
   }
 
+  /**
+   * Cache the result of the offline query in the project Resources directory.
+   * Reading the query again returns the cached result as long as none of the feature groups in the query received
+   * a new commit. Queries over on demand feature groups or feature groups without time travel are not cached.
+   * Cached results are deleted after spark.hsfs.queryCache.ttlHours hours, 168 by default.
+   *
+   * @return Query
+   */
+  public Query withResultCache() {
+    return withResultCache(null);
+  }
+
+  /**
+   * Cache the result of the offline query in the given directory.
+   *
+   * @param location base directory of the result cache
+   * @return Query
+   */
+  public Query withResultCache(String location) {
+    this.resultCacheEnabled = true;
+    this.resultCacheLocation = location;
+    return this;
+  }
+
+  /**
+   * Refresh the materialized result of this Query stored in a time travel enabled feature group.
+   * Only the rows affected by the commits between the start and end time, in the left feature group or in any of the
+   * joined feature groups, are recomputed and upserted into the feature group. Rows removed from the result are not
+   * deleted from the feature group.
+   *
+   * @param featureGroup feature group holding the materialized result, keyed by the primary keys of the left feature
+   *     group of the Query
+   * @param wallclockStartTime start date.
+   * @param wallclockEndTime   end date.
+   * @throws FeatureStoreException
+   * @throws IOException
+   * @throws ParseException
+   */
+  public void materializeIncremental(FeatureGroup featureGroup, String wallclockStartTime, String wallclockEndTime)
+      throws FeatureStoreException, IOException, ParseException {
+    materializeIncremental(featureGroup, wallclockStartTime, wallclockEndTime, null);
+  }
+
+  public void materializeIncremental(FeatureGroup featureGroup, String wallclockStartTime, String wallclockEndTime,
+                                     Map<String, String> writeOptions)
+      throws FeatureStoreException, IOException, ParseException {
+    queryEngine.materializeIncremental(this, featureGroup, wallclockStartTime, wallclockEndTime, writeOptions);
+  }
+
   public Object read() throws FeatureStoreException, IOException {
     return read(false, null);
   }
@@ -223,11 +312,68 @@ public class Query {
           storageConnectorApi.getOnlineStorageConnector(leftFeatureGroup.getFeatureStore());
       return onlineConnector.read(fsQuery.getStorageQuery(Storage.ONLINE),null, null, null);
     } else {
+      String resultCachePath = resultCacheEnabled
+          ? queryEngine.getResultCachePath(this, fsQuery, readOptions, resultCacheLocation) : null;
+      if (resultCachePath != null) {
+        Dataset<Row> cachedResult = queryEngine.readResultCache(resultCachePath);
+        if (cachedResult != null) {
+          return cachedResult;
+        }
+      }
+
       fsQuery.registerOnDemandFeatureGroups();
-      fsQuery.registerHudiFeatureGroups(readOptions);
+      Map<String, String> joinHints = queryEngine.resolveJoinHints(this, fsQuery);
+      fsQuery.registerHudiFeatureGroups(readOptions, joinHints);
 
       LOGGER.info("Executing query: " + fsQuery.getStorageQuery(Storage.OFFLINE));
-      return SparkEngine.getInstance().sql(fsQuery.getStorageQuery(Storage.OFFLINE));
+      Dataset<Row> result = SparkEngine.getInstance()
+          .sql(fsQuery.getStorageQuery(Storage.OFFLINE), queryEngine.getJoinConf(joinHints));
+      if (resultCachePath != null) {
+        return queryEngine.writeResultCache(result, resultCachePath);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Plan the offline execution of the Query without running it.
+   * The plan lists every feature group read with its storage, the estimated rows and bytes read, the partitions
+   * pruned by the filters and the join strategy, together with the number of REST calls needed to execute the Query.
+   *
+   * @return QueryPlan
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public QueryPlan explain() throws FeatureStoreException, IOException {
+    return queryEngine.explain(this, resultCacheEnabled);
+  }
+
+  /**
+   * Execute the Query against the online feature store and return the rows, without using Spark.
+   * Queries are executed over pooled JDBC connections and the rows are collected in memory, this method is meant for
+   * point lookups by services which do not run a Spark session.
+   *
+   * @return list of rows, each row maps the column names to their values
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public List<Map<String, Object>> readOnline() throws FeatureStoreException, IOException {
+    return readOnline(false);
+  }
+
+  /**
+   * Execute the Query against the online feature store and return the rows, without using Spark.
+   *
+   * @param external set to true if the online feature store is accessed from outside of the Hopsworks cluster
+   * @return list of rows, each row maps the column names to their values
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public List<Map<String, Object>> readOnline(boolean external) throws FeatureStoreException, IOException {
+    try {
+      return OnlineQueryEngine.getInstance().read(this, external);
+    } catch (SQLException e) {
+      throw new FeatureStoreException("Error executing query against the online feature store", e);
     }
   }
 
@@ -0,0 +1,108 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package com.logicalclocks.hsfs.constructor;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class QueryPlan {
+
+  @Getter
+  @Setter
+  private String query;
+
+  @Getter
+  @Setter
+  private List<FeatureGroupRead> featureGroupReads = new ArrayList<>();
+
+  @Getter
+  @Setter
+  private Integer restCalls;
+
+  public Long getEstimatedBytes() {
+    return featureGroupReads.stream()
+        .filter(read -> read.getEstimatedBytes() != null)
+        .mapToLong(FeatureGroupRead::getEstimatedBytes)
+        .sum();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder plan = new StringBuilder();
+    plan.append("Query: ").append(query).append("\n");
+    for (FeatureGroupRead read : featureGroupReads) {
+      plan.append(read).append("\n");
+    }
+    plan.append("Total estimated bytes: ").append(getEstimatedBytes()).append("\n");
+    plan.append("REST calls: ").append(restCalls);
+    return plan.toString();
+  }
+
+  public static class FeatureGroupRead {
+
+    @Getter
+    @Setter
+    private String alias;
+
+    @Getter
+    @Setter
+    private String featureGroup;
+
+    @Getter
+    @Setter
+    private Integer version;
+
+    @Getter
+    @Setter
+    private String storage;
+
+    @Getter
+    @Setter
+    private Long estimatedRows;
+
+    @Getter
+    @Setter
+    private Long estimatedBytes;
+
+    @Getter
+    @Setter
+    private Integer partitions;
+
+    @Getter
+    @Setter
+    private Integer partitionsPruned;
+
+    @Getter
+    @Setter
+    private JoinStrategy joinStrategy;
+
+    @Override
+    public String toString() {
+      return "  " + featureGroup + "_" + version + (alias != null ? " as " + alias : "")
+          + " [storage=" + storage
+          + ", estimatedRows=" + estimatedRows
+          + ", estimatedBytes=" + estimatedBytes
+          + ", partitions=" + partitions
+          + ", partitionsPruned=" + partitionsPruned
+          + (joinStrategy != null ? ", joinStrategy=" + joinStrategy : "")
+          + "]";
+    }
+  }
+}
@@ -19,9 +19,9 @@ import com.logicalclocks.hsfs.EntityEndpointType;
 import com.logicalclocks.hsfs.Feature;
 import com.logicalclocks.hsfs.FeatureGroup;
 import com.logicalclocks.hsfs.FeatureStoreException;
-import com.logicalclocks.hsfs.HudiOperationType;
 import com.logicalclocks.hsfs.OnDemandFeatureGroup;
 import com.logicalclocks.hsfs.StreamFeatureGroup;
+import com.logicalclocks.hsfs.constructor.Query;
 import com.logicalclocks.hsfs.metadata.FeatureGroupApi;
 import com.logicalclocks.hsfs.metadata.FeatureGroupBase;
 import com.logicalclocks.hsfs.metadata.TagsApi;
@@ -29,7 +29,6 @@ import com.logicalclocks.hsfs.metadata.TagsApi;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.text.ParseException;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -37,6 +36,7 @@ import java.util.Optional;
 public class FeatureGroupBaseEngine {
   protected FeatureGroupApi featureGroupApi = new FeatureGroupApi();
   protected TagsApi tagsApi = new TagsApi(EntityEndpointType.FEATURE_GROUP);
+  protected FeatureGroupUtils utils = new FeatureGroupUtils();
 
   public void delete(FeatureGroupBase featureGroupBase) throws FeatureStoreException, IOException {
     featureGroupApi.delete(featureGroupBase);
@@ -95,11 +95,19 @@ public class FeatureGroupBaseEngine {
     T apiFG = featureGroupApi.updateMetadata(featureGroup, "updateMetadata",
         fgClass);
     featureGroup.setFeatures(apiFG.getFeatures());
-    if (featureGroup instanceof FeatureGroup) {
-      SparkEngine.getInstance().writeOfflineDataframe((FeatureGroup) featureGroup,
-          SparkEngine.getInstance().getEmptyAppendedDataframe(featureGroup.read(), features),
-          HudiOperationType.UPSERT, new HashMap<>(), null);
-    }
+  }
+
+  /**
+   * Query of the columns identifying the records of the feature group, to be filtered on the records to delete.
+   */
+  public Query selectDeleteColumns(FeatureGroupBase featureGroup) {
+    return featureGroup.select(utils.getDeleteColumns(featureGroup));
+  }
+
+  public void commitDelete(FeatureGroupBase featureGroup, Query query, Map<String, String> writeOptions)
+      throws FeatureStoreException, IOException, ParseException {
+    utils.validateDeleteSupported(featureGroup);
+    utils.commitDelete(featureGroup, query.read(false, null), writeOptions);
   }
 
   public <T extends FeatureGroupBase> void updateStatisticsConfig(FeatureGroupBase featureGroup, Class<T> fgClass)
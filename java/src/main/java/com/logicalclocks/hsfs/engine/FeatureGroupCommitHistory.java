@@ -0,0 +1,116 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package com.logicalclocks.hsfs.engine;
+
+import com.logicalclocks.hsfs.FeatureGroupCommit;
+import com.logicalclocks.hsfs.FeatureStoreException;
+import com.logicalclocks.hsfs.metadata.FeatureGroupApi;
+import com.logicalclocks.hsfs.metadata.FeatureGroupBase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Commits of a feature group ordered by commit time. The history is loaded once and on later calls only the commits
+ * made since the last refresh are fetched, commits are looked up by wallclock time with a binary search.
+ *
+ * <p>Commits are never dropped from the history. Once the retention policy of the feature group cleaned the files of
+ * a commit, the commit is still returned, but reading the feature group as of that commit fails.
+ */
+public class FeatureGroupCommitHistory {
+
+  private static final int PAGE_SIZE = 1000;
+  private static final int REFRESH_PAGE_SIZE = 20;
+
+  private final FeatureGroupApi featureGroupApi;
+  private final List<FeatureGroupCommit> commits = new ArrayList<>();
+
+  public FeatureGroupCommitHistory(FeatureGroupApi featureGroupApi) {
+    this.featureGroupApi = featureGroupApi;
+  }
+
+  /**
+   * Fetch the commits made since the last refresh, latest first until the last known commit is reached.
+   *
+   * @param featureGroup
+   * @throws IOException
+   * @throws FeatureStoreException
+   */
+  public synchronized void refresh(FeatureGroupBase featureGroup) throws IOException, FeatureStoreException {
+    Long lastCommitId = commits.isEmpty() ? null : commits.get(commits.size() - 1).getCommitID();
+    int pageSize = lastCommitId == null ? PAGE_SIZE : REFRESH_PAGE_SIZE;
+    List<FeatureGroupCommit> newCommits = new ArrayList<>();
+    int offset = 0;
+    boolean complete = false;
+    while (!complete) {
+      List<FeatureGroupCommit> page = featureGroupApi.getCommitDetails(featureGroup, null, offset, pageSize);
+      if (page == null) {
+        break;
+      }
+      for (FeatureGroupCommit commit : page) {
+        if (lastCommitId != null && commit.getCommitID() <= lastCommitId) {
+          complete = true;
+          break;
+        }
+        // commits made while paging shift the pages, skip the ones already seen
+        if (newCommits.isEmpty() || commit.getCommitID() < newCommits.get(newCommits.size() - 1).getCommitID()) {
+          newCommits.add(commit);
+        }
+      }
+      complete = complete || page.size() < pageSize;
+      offset += pageSize;
+    }
+    Collections.reverse(newCommits);
+    commits.addAll(newCommits);
+  }
+
+  /**
+   * Get the commits made at or before a point in time.
+   *
+   * @param wallclockTimestamp epoch millis, null for all commits
+   * @param limit maximum number of commits, null for no limit
+   * @return commits latest first
+   */
+  public synchronized List<FeatureGroupCommit> getCommits(Long wallclockTimestamp, Integer limit) {
+    int end = wallclockTimestamp == null ? commits.size() : upperBound(wallclockTimestamp);
+    int start = limit == null ? 0 : Math.max(0, end - limit);
+    List<FeatureGroupCommit> result = new ArrayList<>(commits.subList(start, end));
+    Collections.reverse(result);
+    return result;
+  }
+
+  public synchronized boolean isEmpty() {
+    return commits.isEmpty();
+  }
+
+  // index of the first commit after the timestamp
+  private int upperBound(long wallclockTimestamp) {
+    int low = 0;
+    int high = commits.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (commits.get(mid).getCommitID() <= wallclockTimestamp) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
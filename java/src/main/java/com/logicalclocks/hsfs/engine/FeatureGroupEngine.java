@@ -18,6 +18,7 @@ package com.logicalclocks.hsfs.engine;
 
 import com.logicalclocks.hsfs.Feature;
 import com.logicalclocks.hsfs.FeatureGroup;
+import com.logicalclocks.hsfs.FeatureGroupCommit;
 import com.logicalclocks.hsfs.FeatureStoreException;
 import com.logicalclocks.hsfs.HudiOperationType;
 import com.logicalclocks.hsfs.Storage;
@@ -27,30 +28,51 @@ import com.logicalclocks.hsfs.metadata.KafkaApi;
 import com.logicalclocks.hsfs.metadata.FeatureGroupApi;
 import com.logicalclocks.hsfs.metadata.FeatureGroupValidation;
 import com.logicalclocks.hsfs.metadata.validation.ValidationType;
+import com.logicalclocks.hsfs.util.Constants;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SaveMode;
 import org.apache.spark.sql.streaming.StreamingQuery;
 import org.apache.spark.sql.streaming.StreamingQueryException;
+import org.apache.spark.storage.StorageLevel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 
 public class FeatureGroupEngine {
 
-  private FeatureGroupApi featureGroupApi = new FeatureGroupApi();
-  private HudiEngine hudiEngine = new HudiEngine();
+  private FeatureGroupApi featureGroupApi;
+  private HudiEngine hudiEngine;
   protected KafkaApi kafkaApi = new KafkaApi();
 
   private FeatureGroupUtils utils = new FeatureGroupUtils();
 
   private static final Logger LOGGER = LoggerFactory.getLogger(FeatureGroupEngine.class);
 
+  public FeatureGroupEngine() {
+    this(new FeatureGroupApi(), new HudiEngine());
+  }
+
+  FeatureGroupEngine(FeatureGroupApi featureGroupApi, HudiEngine hudiEngine) {
+    this.featureGroupApi = featureGroupApi;
+    this.hudiEngine = hudiEngine;
+  }
+
   /**
    * Create the metadata and write the data to the online/offline feature store.
    *
@@ -66,6 +88,29 @@ public class FeatureGroupEngine {
       throws FeatureStoreException, IOException, ParseException {
     dataset = utils.sanitizeFeatureNames(dataset);
 
+    saveMetadata(featureGroup, dataset, partitionKeys, hudiPrecombineKey);
+
+    // Write the dataframe
+    insert(featureGroup, dataset, null,
+        featureGroup.getTimeTravelFormat() == TimeTravelFormat.HUDI
+            ? HudiOperationType.BULK_INSERT : null,
+        SaveMode.Append, writeOptions);
+
+    return featureGroup;
+  }
+
+  /**
+   * Create the metadata of the feature group, with the schema of the dataframe if no features were provided.
+   *
+   * @param featureGroup
+   * @param dataset
+   * @param partitionKeys
+   * @param hudiPrecombineKey
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  private void saveMetadata(FeatureGroup featureGroup, Dataset<Row> dataset, List<String> partitionKeys,
+                            String hudiPrecombineKey) throws FeatureStoreException, IOException {
     if (featureGroup.getFeatures() == null) {
       featureGroup.setFeatures(utils.parseFeatureGroupSchema(dataset));
     }
@@ -122,37 +167,99 @@ public class FeatureGroupEngine {
       List<Feature> features = apiFG.getFeatures();
       featureGroup.setFeatures(features);
     }
+  }
 
-    // Write the dataframe
-    insert(featureGroup, dataset, null,
-        featureGroup.getTimeTravelFormat() == TimeTravelFormat.HUDI
-            ? HudiOperationType.BULK_INSERT : null,
-        SaveMode.Append, writeOptions);
+  /**
+   * Backfill a time travel enabled feature group in chunks, each chunk is bulk inserted as its own commit. The commits
+   * record the backfill id and the chunk and every committed chunk is marked under the table path, a backfill that is
+   * restarted with the same id and input skips the chunks which were already committed. Chunks are the partitions of
+   * the feature group or, if it isn't partitioned or numChunks is set, ranges of the primary key hash. The input is
+   * persisted for the duration of the backfill, see the `hsfs.write.storage.level` write option. The metadata of the
+   * feature group is created if it doesn't exist yet.
+   *
+   * @param featureGroup
+   * @param featureData
+   * @param partitionKeys
+   * @param hudiPrecombineKey
+   * @param backfillId identifies the backfill across restarts
+   * @param numChunks number of primary key hash chunks, null to backfill partition by partition
+   * @param writeOptions
+   * @throws FeatureStoreException
+   * @throws IOException
+   * @throws ParseException
+   */
+  public void backfill(FeatureGroup featureGroup, Dataset<Row> featureData, List<String> partitionKeys,
+                       String hudiPrecombineKey, String backfillId, Integer numChunks,
+                       Map<String, String> writeOptions)
+      throws FeatureStoreException, IOException, ParseException {
+    if (featureGroup.getTimeTravelFormat() != TimeTravelFormat.HUDI) {
+      throw new FeatureStoreException("Backfill is only supported for time travel enabled feature groups.");
+    }
+    Dataset<Row> dataset = utils.sanitizeFeatureNames(featureData);
+    if (featureGroup.getId() == null) {
+      saveMetadata(featureGroup, dataset, partitionKeys, hudiPrecombineKey);
+    }
 
-    return featureGroup;
+    // every chunk is filtered from the input, partition it by chunk and evaluate its lineage only once
+    dataset = SparkEngine.getInstance().partitionBackfillInput(featureGroup, dataset, numChunks);
+    boolean persisted = SparkEngine.getInstance().persistWriteInput(dataset, writeOptions);
+    try {
+      Map<String, Dataset<Row>> chunks = SparkEngine.getInstance().getBackfillChunks(featureGroup, dataset, numChunks);
+      Set<String> committedChunks = SparkEngine.getInstance().getCommittedBackfillChunks(featureGroup, backfillId);
+      int chunkIndex = 0;
+      for (Map.Entry<String, Dataset<Row>> chunk : chunks.entrySet()) {
+        chunkIndex++;
+        if (committedChunks.contains(chunk.getKey())) {
+          LOGGER.info("Backfill `" + backfillId + "`: chunk " + chunkIndex + "/" + chunks.size() + " `"
+              + chunk.getKey() + "` was already committed");
+          continue;
+        }
+        LOGGER.info("Backfill `" + backfillId + "`: writing chunk " + chunkIndex + "/" + chunks.size() + " `"
+            + chunk.getKey() + "`");
+        Map<String, String> chunkWriteOptions = writeOptions == null ? new HashMap<>() : new HashMap<>(writeOptions);
+        chunkWriteOptions.put(Constants.BACKFILL_ID, backfillId);
+        chunkWriteOptions.put(Constants.BACKFILL_CHUNK, chunk.getKey());
+        SparkEngine.getInstance().writeOfflineDataframe(featureGroup, chunk.getValue(),
+            HudiOperationType.BULK_INSERT, chunkWriteOptions, null);
+        SparkEngine.getInstance().markBackfillChunkCommitted(featureGroup, backfillId, chunk.getKey());
+      }
+    } finally {
+      if (persisted) {
+        dataset.unpersist();
+      }
+    }
   }
 
   public void insert(FeatureGroup featureGroup, Dataset<Row> featureData, Storage storage,
                      HudiOperationType operation, SaveMode saveMode, Map<String, String> writeOptions)
       throws FeatureStoreException, IOException, ParseException {
-    Integer validationId = null;
-    if (featureGroup.getValidationType() != ValidationType.NONE) {
-      FeatureGroupValidation validation = featureGroup.validate(featureData, true);
-      if (validation != null) {
-        validationId = validation.getValidationId();
+    // validation, the offline and the online write all read the input, evaluate its lineage only once
+    Dataset<Row> dataset = utils.sanitizeFeatureNames(featureData);
+    boolean persisted = SparkEngine.getInstance().persistWriteInput(dataset, writeOptions);
+    try {
+      Integer validationId = null;
+      if (featureGroup.getValidationType() != ValidationType.NONE) {
+        FeatureGroupValidation validation = featureGroup.validate(dataset, true);
+        if (validation != null) {
+          validationId = validation.getValidationId();
+        }
       }
-    }
 
-    if (saveMode == SaveMode.Overwrite) {
-      // If we set overwrite, then the directory will be removed and with it all the metadata
-      // related to the feature group will be lost. We need to keep them.
-      // So we call Hopsworks to manage to truncate the table and re-create the metadata
-      // After that it's going to be just a normal append
-      featureGroupApi.deleteContent(featureGroup);
-    }
+      if (saveMode == SaveMode.Overwrite) {
+        // If we set overwrite, then the directory will be removed and with it all the metadata
+        // related to the feature group will be lost. We need to keep them.
+        // So we call Hopsworks to manage to truncate the table and re-create the metadata
+        // After that it's going to be just a normal append
+        featureGroupApi.deleteContent(featureGroup);
+      }
 
-    saveDataframe(featureGroup, featureData, storage, operation,
-        writeOptions, utils.getKafkaConfig(featureGroup, writeOptions), validationId);
+      saveDataframe(featureGroup, dataset, storage, operation,
+          writeOptions, utils.getKafkaConfig(featureGroup, writeOptions), validationId);
+    } finally {
+      if (persisted) {
+        dataset.unpersist();
+      }
+    }
   }
 
   @Deprecated
@@ -178,6 +285,34 @@ public class FeatureGroupEngine {
     return streamingQuery;
   }
 
+  public StreamingQuery insertStream(FeatureGroup featureGroup, Dataset<Row> featureData, Storage storage,
+                                     String queryName, String outputMode, boolean awaitTermination, Long timeout,
+                                     String checkpointLocation, Map<String, String> writeOptions)
+      throws FeatureStoreException, IOException, StreamingQueryException, TimeoutException {
+
+    if (storage == Storage.ONLINE) {
+      return insertStream(featureGroup, featureData, queryName, outputMode, awaitTermination, timeout,
+          checkpointLocation, writeOptions);
+    }
+
+    if (featureGroup.getTimeTravelFormat() != TimeTravelFormat.HUDI) {
+      throw new FeatureStoreException("Stream ingestion into the offline storage is only supported for time travel "
+          + "enabled feature groups.");
+    }
+
+    if (featureGroup.getValidationType() != ValidationType.NONE) {
+      LOGGER.info("ValidationWarning: Stream ingestion for feature group `" + featureGroup.getName()
+          + "`, with version `" + featureGroup.getVersion() + "` will not perform validation.");
+    }
+
+    Map<String, String> onlineWriteOptions = storage == null && featureGroup.getOnlineEnabled()
+        ? utils.getKafkaConfig(featureGroup, writeOptions) : null;
+
+    return SparkEngine.getInstance().writeStreamOfflineDataframe(featureGroup,
+        utils.sanitizeFeatureNames(featureData), queryName, outputMode, awaitTermination, timeout,
+        checkpointLocation, writeOptions, onlineWriteOptions);
+  }
+
   public void saveDataframe(FeatureGroup featureGroup, Dataset<Row> dataset, Storage storage,
                             HudiOperationType operation, Map<String, String> offlineWriteOptions,
                             Map<String, String> onlineWriteOptions, Integer validationId)
@@ -192,12 +327,247 @@ public class FeatureGroupEngine {
       SparkEngine.getInstance().writeOnlineDataframe(featureGroup, dataset, featureGroup.getOnlineTopicName(),
               onlineWriteOptions);
     } else if (featureGroup.getOnlineEnabled() && storage == null) {
-      SparkEngine.getInstance().writeOfflineDataframe(featureGroup, dataset, operation,
-              offlineWriteOptions, validationId);
-      SparkEngine.getInstance().writeOnlineDataframe(featureGroup, dataset, featureGroup.getOnlineTopicName(),
-              onlineWriteOptions);
+      writeOfflineAndOnlineDataframe(featureGroup, dataset, operation, offlineWriteOptions, onlineWriteOptions,
+          validationId);
     } else {
       throw new FeatureStoreException("Error writing to offline and online feature store.");
     }
   }
+
+  /**
+   * Write to the offline and online storage as two concurrent Spark jobs. The write fails if any of the two fails,
+   * after both completed, with the failure of the other write attached as suppressed exception.
+   */
+  private void writeOfflineAndOnlineDataframe(FeatureGroup featureGroup, Dataset<Row> dataset,
+                                              HudiOperationType operation, Map<String, String> offlineWriteOptions,
+                                              Map<String, String> onlineWriteOptions, Integer validationId)
+      throws IOException, FeatureStoreException, ParseException {
+    if (!dataset.storageLevel().equals(StorageLevel.NONE())) {
+      // materialize the persisted input first, otherwise both jobs would compute its lineage concurrently
+      dataset.count();
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<Long> offlineWrite = executor.submit(() -> {
+        long start = System.currentTimeMillis();
+        SparkEngine.getInstance().writeOfflineDataframe(featureGroup, dataset, operation,
+            offlineWriteOptions, validationId);
+        return System.currentTimeMillis() - start;
+      });
+      Future<Long> onlineWrite = executor.submit(() -> {
+        long start = System.currentTimeMillis();
+        SparkEngine.getInstance().writeOnlineDataframe(featureGroup, dataset, featureGroup.getOnlineTopicName(),
+            onlineWriteOptions);
+        return System.currentTimeMillis() - start;
+      });
+
+      Exception failure = null;
+      failure = awaitWrite(offlineWrite, "Offline write", featureGroup, failure);
+      failure = awaitWrite(onlineWrite, "Online write", featureGroup, failure);
+      throwWriteFailure(failure, "Error writing to offline and online feature store.");
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Insert into several feature groups concurrently from one Spark session, each insert runs as in
+   * `FeatureGroup.insert`. All inserts run to completion, the first failure is thrown afterwards with the failures
+   * of the other inserts attached as suppressed exceptions.
+   *
+   * @param featureGroupData dataframe to insert per feature group
+   * @param storage storage to write to, null for the offline and online storage
+   * @param overwrite overwrite the feature groups
+   * @param writeOptions write options applied to every insert
+   * @param parallelism maximum number of concurrent inserts
+   */
+  public void insertAll(Map<FeatureGroup, Dataset<Row>> featureGroupData, Storage storage, boolean overwrite,
+                        Map<String, String> writeOptions, int parallelism)
+      throws IOException, FeatureStoreException, ParseException {
+    if (featureGroupData.isEmpty()) {
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+        Math.min(parallelism, featureGroupData.size())));
+    try {
+      Map<FeatureGroup, Future<Long>> inserts = new LinkedHashMap<>();
+      for (Map.Entry<FeatureGroup, Dataset<Row>> entry : featureGroupData.entrySet()) {
+        inserts.put(entry.getKey(), executor.submit(() -> {
+          long start = System.currentTimeMillis();
+          entry.getKey().insert(entry.getValue(), storage, overwrite, null, writeOptions);
+          return System.currentTimeMillis() - start;
+        }));
+      }
+
+      Exception failure = null;
+      for (Map.Entry<FeatureGroup, Future<Long>> insert : inserts.entrySet()) {
+        failure = awaitWrite(insert.getValue(), "Insert", insert.getKey(), failure);
+      }
+      throwWriteFailure(failure, "Error inserting into feature groups.");
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Write several Hudi feature groups together. The writes run concurrently and their commits are published to
+   * Hopsworks only once all writes succeeded. If a write or the publication of a commit fails, the commits of all
+   * writes are rolled back, including the ones already published. Only the offline storage is written.
+   *
+   * <p>The writes are not atomic: a Hudi commit is readable from its table as soon as its write completed, until it
+   * is rolled back, and Hopsworks has no way to remove a published commit, so commits published before a failure
+   * stay in the commit history of their feature groups. The writes don't compact or clean the tables, so that their
+   * commits can be rolled back, and the feature groups shouldn't be written by others while the writes run.
+   *
+   * @param featureGroupData dataframe to upsert per feature group
+   * @param writeOptions write options applied to every write
+   * @param parallelism maximum number of concurrent writes
+   */
+  public void insertTransaction(Map<FeatureGroup, Dataset<Row>> featureGroupData, Map<String, String> writeOptions,
+                                int parallelism) throws IOException, FeatureStoreException, ParseException {
+    for (FeatureGroup featureGroup : featureGroupData.keySet()) {
+      if (featureGroup.getId() == null || featureGroup.getTimeTravelFormat() != TimeTravelFormat.HUDI) {
+        throw new FeatureStoreException("Feature group `" + featureGroup.getName() + "`, with version `"
+            + featureGroup.getVersion() + "` can't be written in a transaction, only existing HUDI feature groups "
+            + "are supported.");
+      }
+    }
+    if (featureGroupData.isEmpty()) {
+      return;
+    }
+
+    Map<FeatureGroup, FeatureGroupCommit> stagedCommits = new ConcurrentHashMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+        Math.min(parallelism, featureGroupData.size())));
+    try {
+      Map<FeatureGroup, Future<Long>> writes = new LinkedHashMap<>();
+      for (Map.Entry<FeatureGroup, Dataset<Row>> entry : featureGroupData.entrySet()) {
+        writes.put(entry.getKey(), executor.submit(() -> {
+          long start = System.currentTimeMillis();
+          FeatureGroupCommit commit = stageHudiCommit(entry.getKey(), entry.getValue(), writeOptions);
+          if (commit != null) {
+            stagedCommits.put(entry.getKey(), commit);
+          }
+          return System.currentTimeMillis() - start;
+        }));
+      }
+
+      Exception failure = null;
+      for (Map.Entry<FeatureGroup, Future<Long>> write : writes.entrySet()) {
+        failure = awaitWrite(write.getValue(), "Staged write", write.getKey(), failure);
+      }
+      if (failure != null) {
+        rollbackStagedCommits(stagedCommits);
+        throwWriteFailure(failure, "Error writing feature groups in a transaction.");
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    publishStagedCommits(featureGroupData.keySet(), stagedCommits);
+  }
+
+  /**
+   * Publish the staged commits to Hopsworks, in the order of the feature groups. If a commit can't be published, the
+   * commits of all feature groups are rolled back from the Hudi tables, the published ones included, so that no
+   * feature group keeps the data of a partial write.
+   */
+  void publishStagedCommits(Collection<FeatureGroup> featureGroups,
+                            Map<FeatureGroup, FeatureGroupCommit> stagedCommits)
+      throws IOException, FeatureStoreException {
+    List<FeatureGroup> publishedFeatureGroups = new ArrayList<>();
+    for (FeatureGroup featureGroup : featureGroups) {
+      FeatureGroupCommit commit = stagedCommits.get(featureGroup);
+      if (commit == null) {
+        continue;
+      }
+      try {
+        featureGroupApi.featureGroupCommit(featureGroup, commit);
+      } catch (IOException | FeatureStoreException e) {
+        for (FeatureGroup publishedFeatureGroup : publishedFeatureGroups) {
+          LOGGER.error("Commit " + stagedCommits.get(publishedFeatureGroup).getCommitDateString()
+              + " of feature group `" + publishedFeatureGroup.getName() + "`, with version `"
+              + publishedFeatureGroup.getVersion() + "` was published and is rolled back, it stays in the commit "
+              + "history of the feature group");
+        }
+        rollbackStagedCommits(stagedCommits);
+        throw e;
+      }
+      publishedFeatureGroups.add(featureGroup);
+    }
+  }
+
+  private FeatureGroupCommit stageHudiCommit(FeatureGroup featureGroup, Dataset<Row> featureData,
+                                             Map<String, String> writeOptions)
+      throws FeatureStoreException, IOException, ParseException {
+    Dataset<Row> dataset = utils.sanitizeFeatureNames(featureData);
+    boolean persisted = SparkEngine.getInstance().persistWriteInput(dataset, writeOptions);
+    try {
+      Integer validationId = null;
+      if (featureGroup.getValidationType() != ValidationType.NONE) {
+        FeatureGroupValidation validation = featureGroup.validate(dataset, true);
+        if (validation != null) {
+          validationId = validation.getValidationId();
+        }
+      }
+      return hudiEngine.stageHudiFeatureGroup(SparkEngine.getInstance().getSparkSession(), featureGroup, dataset,
+          HudiOperationType.UPSERT, writeOptions, validationId, true);
+    } finally {
+      if (persisted) {
+        dataset.unpersist();
+      }
+    }
+  }
+
+  private void rollbackStagedCommits(Map<FeatureGroup, FeatureGroupCommit> stagedCommits) {
+    for (Map.Entry<FeatureGroup, FeatureGroupCommit> stagedCommit : stagedCommits.entrySet()) {
+      FeatureGroup featureGroup = stagedCommit.getKey();
+      String commit = "commit " + stagedCommit.getValue().getCommitDateString() + " of feature group `"
+          + featureGroup.getName() + "`, with version `" + featureGroup.getVersion() + "`";
+      try {
+        hudiEngine.rollbackCommit(featureGroup, stagedCommit.getValue().getCommitDateString());
+        LOGGER.info("Rolled back " + commit);
+      } catch (Exception e) {
+        LOGGER.error("Could not roll back " + commit, e);
+      }
+    }
+  }
+
+  private void throwWriteFailure(Exception failure, String message)
+      throws IOException, FeatureStoreException, ParseException {
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    } else if (failure instanceof FeatureStoreException) {
+      throw (FeatureStoreException) failure;
+    } else if (failure instanceof ParseException) {
+      throw (ParseException) failure;
+    } else if (failure != null) {
+      throw new FeatureStoreException(message, failure);
+    }
+  }
+
+  private Exception awaitWrite(Future<Long> write, String operation, FeatureGroup featureGroup, Exception failure) {
+    Exception writeFailure = null;
+    try {
+      LOGGER.info(operation + " of feature group `" + featureGroup.getName() + "`, with version `"
+          + featureGroup.getVersion() + "` completed in " + write.get() + " ms");
+    } catch (ExecutionException e) {
+      writeFailure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      writeFailure = e;
+    }
+
+    if (writeFailure == null) {
+      return failure;
+    }
+    LOGGER.error(operation + " of feature group `" + featureGroup.getName() + "`, with version `"
+        + featureGroup.getVersion() + "` failed", writeFailure);
+    if (failure == null) {
+      return writeFailure;
+    }
+    failure.addSuppressed(writeFailure);
+    return failure;
+  }
 }
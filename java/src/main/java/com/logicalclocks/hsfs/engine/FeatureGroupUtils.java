@@ -31,6 +31,7 @@ import com.logicalclocks.hsfs.metadata.HopsworksClient;
 import com.logicalclocks.hsfs.metadata.HopsworksHttpClient;
 import com.logicalclocks.hsfs.metadata.KafkaApi;
 import com.logicalclocks.hsfs.metadata.StorageConnectorApi;
+import com.logicalclocks.hsfs.util.Constants;
 import lombok.SneakyThrows;
 import org.apache.avro.Schema;
 import org.apache.avro.SchemaBuilder;
@@ -39,15 +40,19 @@ import scala.collection.JavaConverters;
 import scala.collection.Seq;
 
 import java.io.IOException;
-import java.sql.Timestamp;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -56,7 +61,19 @@ public class FeatureGroupUtils {
   private FeatureGroupApi featureGroupApi = new FeatureGroupApi();
   private StorageConnectorApi storageConnectorApi = new StorageConnectorApi();
   private KafkaApi kafkaApi = new KafkaApi();
-  private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmmssSSS");
+  // hive connection string per feature store, the credentials are the ones of the client and don't change
+  private static final Map<Integer, String> hiveServerConnections = new ConcurrentHashMap<>();
+  // commit history per feature group id, of the most recently used feature groups
+  private static final int COMMIT_HISTORY_CACHE_SIZE = 100;
+  private static final Map<Integer, FeatureGroupCommitHistory> commitHistories = Collections.synchronizedMap(
+      new LinkedHashMap<Integer, FeatureGroupCommitHistory>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, FeatureGroupCommitHistory> eldest) {
+          return size() > COMMIT_HISTORY_CACHE_SIZE;
+        }
+      });
+  private static final DateTimeFormatter hudiDateFormat = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS")
+      .withZone(ZoneId.systemDefault());
 
   public <S> List<Feature> parseFeatureGroupSchema(S datasetGeneric)
       throws FeatureStoreException {
@@ -100,6 +117,16 @@ public class FeatureGroupUtils {
   }
 
   public String getHiveServerConnection(FeatureGroupBase featureGroup) throws IOException, FeatureStoreException {
+    Integer featureStoreId = featureGroup.getFeatureStore().getId();
+    String connectionString = hiveServerConnections.get(featureStoreId);
+    if (connectionString == null) {
+      connectionString = fetchHiveServerConnection(featureGroup);
+      hiveServerConnections.put(featureStoreId, connectionString);
+    }
+    return connectionString;
+  }
+
+  private String fetchHiveServerConnection(FeatureGroupBase featureGroup) throws IOException, FeatureStoreException {
     Map<String, String> credentials = new HashMap<>();
     credentials.put("sslTrustStore", HopsworksClient.getInstance().getHopsworksHttpClient().getTrustStorePath());
     credentials.put("trustStorePassword", HopsworksClient.getInstance().getHopsworksHttpClient().getCertKey());
@@ -150,8 +177,7 @@ public class FeatureGroupUtils {
 
   @SneakyThrows
   public String timeStampToHudiFormat(Long commitedOnTimeStamp) {
-    Date commitedOnDate = new Timestamp(commitedOnTimeStamp);
-    return dateFormat.format(commitedOnDate);
+    return hudiDateFormat.format(Instant.ofEpochMilli(commitedOnTimeStamp));
   }
 
 
@@ -167,10 +193,7 @@ public class FeatureGroupUtils {
 
   public Map<String, String> getKafkaConfig(FeatureGroupBase featureGroup, Map<String, String> writeOptions)
       throws FeatureStoreException, IOException {
-    Map<String, String> config = new HashMap<>();
-    if (writeOptions != null) {
-      config.putAll(writeOptions);
-    }
+    Map<String, String> config = getKafkaProducerConfig(writeOptions);
     HopsworksHttpClient client = HopsworksClient.getInstance().getHopsworksHttpClient();
 
     config.put("kafka.bootstrap.servers",
@@ -186,30 +209,80 @@ public class FeatureGroupUtils {
     return config;
   }
 
+  Map<String, String> getKafkaProducerConfig(Map<String, String> writeOptions) {
+    Map<String, String> config = new HashMap<>();
+    if (isKafkaIngestionProfileEnabled(writeOptions)) {
+      // batch and compress records, idempotence avoids duplicates on producer retries
+      config.put(Constants.KAFKA_LINGER_MS, "20");
+      config.put(Constants.KAFKA_BATCH_SIZE, "262144");
+      config.put(Constants.KAFKA_COMPRESSION_TYPE, "lz4");
+      config.put(Constants.KAFKA_ENABLE_IDEMPOTENCE, "true");
+      config.put(Constants.KAFKA_ACKS, "all");
+      config.put(Constants.KAFKA_MAX_IN_FLIGHT_REQUESTS, "5");
+    }
+    // user provided options override the ingestion profile
+    if (writeOptions != null) {
+      config.putAll(writeOptions);
+    }
+    return config;
+  }
+
+  public boolean isKafkaIngestionProfileEnabled(Map<String, String> writeOptions) {
+    return writeOptions != null && Boolean.parseBoolean(writeOptions.get(Constants.KAFKA_INGESTION_PROFILE));
+  }
+
+  public int getOnlineTopicPartitions(FeatureGroupBase featureGroup) throws FeatureStoreException, IOException {
+    return kafkaApi.getTopicDetails(featureGroup.getFeatureStore(), featureGroup.getOnlineTopicName()).size();
+  }
+
   private Map<Long, Map<String, String>>  getCommitDetails(FeatureGroupBase featureGroup, String wallclockTime,
                                                            Integer limit)
       throws FeatureStoreException, IOException, ParseException {
+    Map<Long, Map<String, String>> commitDetails = new HashMap<>();
+    for (FeatureGroupCommit featureGroupCommit : getCommitHistory(featureGroup, wallclockTime, limit)) {
+      Map<String, String> details = new HashMap<>();
+      details.put("committedOn", timeStampToHudiFormat(featureGroupCommit.getCommitID()));
+      details.put("rowsUpdated", featureGroupCommit.getRowsUpdated() != null
+          ? featureGroupCommit.getRowsUpdated().toString() : "0");
+      details.put("rowsInserted", featureGroupCommit.getRowsInserted() != null
+          ? featureGroupCommit.getRowsInserted().toString() : "0");
+      details.put("rowsDeleted", featureGroupCommit.getRowsDeleted() != null
+          ? featureGroupCommit.getRowsDeleted().toString() : "0");
+      commitDetails.put(featureGroupCommit.getCommitID(), details);
+    }
+    return commitDetails;
+  }
 
+  /**
+   * Get the commits of a feature group made at or before a point in time, latest first. The full history of a feature
+   * group is cached once it was listed and is then refreshed incrementally, until then bounded lookups are sent to
+   * Hopsworks directly. The histories of the 100 most recently used feature groups are kept.
+   *
+   * @param featureGroup
+   * @param wallclockTime point in time, null for the latest commits
+   * @param limit maximum number of commits, null for all commits
+   * @return commits of the feature group
+   * @throws FeatureStoreException
+   * @throws IOException
+   * @throws ParseException
+   */
+  public List<FeatureGroupCommit> getCommitHistory(FeatureGroupBase featureGroup, String wallclockTime, Integer limit)
+      throws FeatureStoreException, IOException, ParseException {
     Long wallclockTimestamp =  wallclockTime != null ? getTimeStampFromDateString(wallclockTime) : null;
-    List<FeatureGroupCommit> featureGroupCommits =
-        featureGroupApi.getCommitDetails(featureGroup, wallclockTimestamp, limit);
+    FeatureGroupCommitHistory commitHistory = commitHistories.get(featureGroup.getId());
+    List<FeatureGroupCommit> featureGroupCommits;
+    if (commitHistory == null && limit != null) {
+      featureGroupCommits = featureGroupApi.getCommitDetails(featureGroup, wallclockTimestamp, limit);
+    } else {
+      commitHistory = commitHistories.computeIfAbsent(featureGroup.getId(),
+          id -> new FeatureGroupCommitHistory(featureGroupApi));
+      commitHistory.refresh(featureGroup);
+      featureGroupCommits = commitHistory.isEmpty() ? null : commitHistory.getCommits(wallclockTimestamp, limit);
+    }
     if (featureGroupCommits == null) {
       throw new FeatureStoreException("There are no commit details available for this Feature group");
     }
-    Map<Long, Map<String, String>> commitDetails = new HashMap<>();
-    for (FeatureGroupCommit featureGroupCommit : featureGroupCommits) {
-      commitDetails.put(featureGroupCommit.getCommitID(), new HashMap<String, String>() {{
-            put("committedOn", timeStampToHudiFormat(featureGroupCommit.getCommitID()));
-            put("rowsUpdated", featureGroupCommit.getRowsUpdated() != null
-                ? featureGroupCommit.getRowsUpdated().toString() : "0");
-            put("rowsInserted", featureGroupCommit.getRowsInserted() != null
-                ? featureGroupCommit.getRowsInserted().toString() : "0");
-            put("rowsDeleted", featureGroupCommit.getRowsDeleted() != null
-                ? featureGroupCommit.getRowsDeleted().toString() : "0");
-          }}
-      );
-    }
-    return commitDetails;
+    return featureGroupCommits;
   }
 
   public Map<Long, Map<String, String>> commitDetails(FeatureGroupBase featureGroupBase, Integer limit)
@@ -233,16 +306,77 @@ public class FeatureGroupUtils {
   public <S> FeatureGroupCommit commitDelete(FeatureGroupBase featureGroupBase, S genericDataset,
                                          Map<String, String> writeOptions)
       throws IOException, FeatureStoreException, ParseException {
+    validateDeleteSupported(featureGroupBase);
+    HudiEngine hudiEngine = new HudiEngine();
+    return hudiEngine.deleteRecord(SparkEngine.getInstance().getSparkSession(), featureGroupBase, genericDataset,
+        writeOptions);
+  }
+
+  public void validateDeleteSupported(FeatureGroupBase featureGroupBase) throws FeatureStoreException {
     if (!((featureGroupBase instanceof FeatureGroup && featureGroupBase.getTimeTravelFormat() == TimeTravelFormat.HUDI)
         || featureGroupBase instanceof StreamFeatureGroup)) {
       // operation is only valid for time travel enabled feature group
       throw new FeatureStoreException("delete function is only valid for "
             + "time travel enabled feature group");
     }
+  }
+
+  /**
+   * Columns identifying the records to delete: the primary keys, the event time, which is part of the record key, and
+   * the partition columns.
+   */
+  public List<String> getDeleteKeyColumns(FeatureGroupBase featureGroupBase) {
+    List<String> keyColumns = new ArrayList<>(JavaConverters.seqAsJavaListConverter(
+        getPrimaryColumns(featureGroupBase)).asJava());
+    if (!Strings.isNullOrEmpty(featureGroupBase.getEventTime())) {
+      keyColumns.add(featureGroupBase.getEventTime());
+    }
+    keyColumns.addAll(JavaConverters.seqAsJavaListConverter(getPartitionColumns(featureGroupBase)).asJava());
+    return keyColumns.stream().distinct().collect(Collectors.toList());
+  }
 
+  /**
+   * Columns read to delete records matching a filter, the key columns and the precombine key.
+   */
+  public List<String> getDeleteColumns(FeatureGroupBase featureGroupBase) {
+    List<String> columns = getDeleteKeyColumns(featureGroupBase);
+    featureGroupBase.getFeatures().stream()
+        .filter(feature -> Boolean.TRUE.equals(feature.getHudiPrecombineKey()))
+        .map(Feature::getName)
+        .filter(name -> !columns.contains(name))
+        .forEach(columns::add);
+    return columns;
+  }
+
+  public String compact(FeatureGroupBase featureGroupBase, Map<String, String> writeOptions)
+      throws IOException, FeatureStoreException {
+    validateTableServiceSupported(featureGroupBase);
     HudiEngine hudiEngine = new HudiEngine();
-    return hudiEngine.deleteRecord(SparkEngine.getInstance().getSparkSession(), featureGroupBase, genericDataset,
-        writeOptions);
+    return hudiEngine.compact(SparkEngine.getInstance().getSparkSession(), featureGroupBase, writeOptions);
+  }
+
+  public String cluster(FeatureGroupBase featureGroupBase, List<String> sortColumns, Long targetFileSize,
+                        Map<String, String> writeOptions)
+      throws IOException, FeatureStoreException {
+    validateTableServiceSupported(featureGroupBase);
+    HudiEngine hudiEngine = new HudiEngine();
+    return hudiEngine.cluster(SparkEngine.getInstance().getSparkSession(), featureGroupBase, sortColumns,
+        targetFileSize, writeOptions);
+  }
+
+  public void clean(FeatureGroupBase featureGroupBase, Map<String, String> writeOptions)
+      throws IOException, FeatureStoreException {
+    validateTableServiceSupported(featureGroupBase);
+    HudiEngine hudiEngine = new HudiEngine();
+    hudiEngine.clean(SparkEngine.getInstance().getSparkSession(), featureGroupBase, writeOptions);
+  }
+
+  private void validateTableServiceSupported(FeatureGroupBase featureGroupBase) throws FeatureStoreException {
+    if (!((featureGroupBase instanceof FeatureGroup && featureGroupBase.getTimeTravelFormat() == TimeTravelFormat.HUDI)
+        || featureGroupBase instanceof StreamFeatureGroup)) {
+      // operation is only valid for time travel enabled feature group
+      throw new FeatureStoreException("Table services are only valid for time travel enabled feature groups");
+    }
   }
 
   public String getAvroSchema(FeatureGroupBase featureGroup) throws FeatureStoreException, IOException {
@@ -21,9 +21,12 @@ import com.logicalclocks.hsfs.FeatureGroup;
 import com.logicalclocks.hsfs.FeatureGroupCommit;
 import com.logicalclocks.hsfs.FeatureStoreException;
 import com.logicalclocks.hsfs.HudiOperationType;
+import com.logicalclocks.hsfs.HudiTableType;
 import com.logicalclocks.hsfs.metadata.FeatureGroupApi;
 
 import org.apache.hudi.common.model.HoodieCommitMetadata;
+import org.apache.hudi.common.model.HoodieTableType;
+import org.apache.hudi.common.table.HoodieTableMetaClient;
 import org.apache.hudi.common.table.timeline.HoodieTimeline;
 import org.apache.hudi.HoodieDataSourceHelpers;
 import org.apache.parquet.Strings;
@@ -33,16 +36,17 @@ import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SaveMode;
 
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 
 import lombok.SneakyThrows;
 
 import scala.collection.Seq;
 
 import java.io.IOException;
-import java.sql.Timestamp;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -78,9 +82,14 @@ public class HudiEngine {
   private static final String HIVE_AUTO_CREATE_DATABASE_OPT_KEY = "hoodie.datasource.hive_sync.auto_create_database";
   private static final String HIVE_AUTO_CREATE_DATABASE_OPT_VAL = "false";
 
-  private static final String HUDI_COPY_ON_WRITE = "COPY_ON_WRITE";
+  private static final String HUDI_HIVE_SYNC_SKIP_RO_SUFFIX = "hoodie.datasource.hive_sync.skip_ro_suffix";
+  private static final String HUDI_COMPACT_INLINE = "hoodie.compact.inline";
+  private static final String HUDI_COMPACT_INLINE_MAX_DELTA_COMMITS = "hoodie.compact.inline.max.delta.commits";
+  private static final String HUDI_COMPACT_INLINE_MAX_DELTA_COMMITS_DEFAULT = "5";
   private static final String HUDI_QUERY_TYPE_OPT_KEY = "hoodie.datasource.query.type";
   private static final String HUDI_QUERY_TYPE_INCREMENTAL_OPT_VAL = "incremental";
+  private static final String HUDI_QUERY_TYPE_SNAPSHOT_OPT_VAL = "snapshot";
+  private static final String HUDI_TIME_TRAVEL_AS_OF_INSTANT = "as.of.instant";
   private static final String HUDI_BEGIN_INSTANTTIME_OPT_KEY = "hoodie.datasource.read.begin.instanttime";
   private static final String HUDI_END_INSTANTTIME_OPT_KEY = "hoodie.datasource.read.end.instanttime";
 
@@ -89,8 +98,8 @@ public class HudiEngine {
 
   private FeatureGroupUtils utils = new FeatureGroupUtils();
   private FeatureGroupApi featureGroupApi = new FeatureGroupApi();
-  private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmmssSSS");
-  private FeatureGroupCommit fgCommitMetadata = new FeatureGroupCommit();
+  private static final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS")
+      .withZone(ZoneId.systemDefault());
 
 
   public void saveHudiFeatureGroup(SparkSession sparkSession, FeatureGroup featureGroup,
@@ -132,7 +141,8 @@ public class HudiEngine {
 
   public void registerTemporaryTable(SparkSession sparkSession, FeatureGroup featureGroup, String alias,
                                      Long startTimestamp, Long endTimestamp, Map<String, String> readOptions) {
-    Map<String, String> hudiArgs = setupHudiReadOpts(startTimestamp, endTimestamp, readOptions);
+    Map<String, String> hudiArgs = setupHudiReadOpts(startTimestamp, endTimestamp, readOptions,
+        getTableType(sparkSession, featureGroup));
     sparkSession.read()
         .format(HUDI_SPARK_FORMAT)
         .options(hudiArgs)
@@ -145,6 +155,7 @@ public class HudiEngine {
     FileSystem hopsfsConf = FileSystem.get(sparkSession.sparkContext().hadoopConfiguration());
     HoodieTimeline commitTimeline = HoodieDataSourceHelpers.allCompletedCommitsCompactions(hopsfsConf, basePath);
 
+    FeatureGroupCommit fgCommitMetadata = new FeatureGroupCommit();
     fgCommitMetadata.setCommitDateString(commitTimeline.lastInstant().get().getTimestamp());
     fgCommitMetadata.setCommitTime(utils.getTimeStampFromDateString(commitTimeline.lastInstant().get().getTimestamp()));
     byte[] commitsToReturn = commitTimeline.getInstantDetails(commitTimeline.lastInstant().get()).get();
@@ -155,12 +166,33 @@ public class HudiEngine {
     return fgCommitMetadata;
   }
 
+  @SneakyThrows
+  private HoodieTableType getTableType(SparkSession sparkSession, FeatureGroup featureGroup) {
+    Path basePath = new Path(featureGroup.getLocation());
+    FileSystem fs = basePath.getFileSystem(sparkSession.sparkContext().hadoopConfiguration());
+    if (fs.exists(new Path(basePath, HoodieTableMetaClient.METAFOLDER_NAME))) {
+      return HoodieTableMetaClient.builder()
+          .setConf(sparkSession.sparkContext().hadoopConfiguration())
+          .setBasePath(featureGroup.getLocation())
+          .build()
+          .getTableType();
+    }
+    return featureGroup.getHudiTableType() == HudiTableType.MERGE_ON_READ
+        ? HoodieTableType.MERGE_ON_READ : HoodieTableType.COPY_ON_WRITE;
+  }
+
   private Map<String, String> setupHudiWriteOpts(FeatureGroup featureGroup, HudiOperationType operation,
                                                  Map<String, String> writeOptions)
       throws IOException, FeatureStoreException {
     Map<String, String> hudiArgs = new HashMap<String, String>();
 
-    hudiArgs.put(HUDI_TABLE_STORAGE_TYPE, HUDI_COPY_ON_WRITE);
+    HoodieTableType tableType = getTableType(SparkEngine.getInstance().getSparkSession(), featureGroup);
+    hudiArgs.put(HUDI_TABLE_STORAGE_TYPE, tableType.name());
+    if (tableType == HoodieTableType.MERGE_ON_READ) {
+      hudiArgs.put(HUDI_COMPACT_INLINE, "true");
+      hudiArgs.put(HUDI_COMPACT_INLINE_MAX_DELTA_COMMITS, HUDI_COMPACT_INLINE_MAX_DELTA_COMMITS_DEFAULT);
+      hudiArgs.put(HUDI_HIVE_SYNC_SKIP_RO_SUFFIX, "true");
+    }
 
     hudiArgs.put(HUDI_KEY_GENERATOR_OPT_KEY, HUDI_COMPLEX_KEY_GENERATOR_OPT_VAL);
 
@@ -208,22 +240,35 @@ public class HudiEngine {
   }
 
   private Map<String, String> setupHudiReadOpts(Long startTimestamp, Long endTimestamp,
-                                                Map<String, String> readOptions) {
+                                                Map<String, String> readOptions, HoodieTableType tableType) {
     Map<String, String> hudiArgs = new HashMap<>();
 
-    if (startTimestamp != null) {
-      hudiArgs.put(HUDI_BEGIN_INSTANTTIME_OPT_KEY, timeStampToHudiFormat(startTimestamp));
+    String queryType;
+    if (readOptions != null && readOptions.containsKey(HUDI_QUERY_TYPE_OPT_KEY)) {
+      queryType = readOptions.get(HUDI_QUERY_TYPE_OPT_KEY);
+    } else if (startTimestamp == null && tableType == HoodieTableType.MERGE_ON_READ) {
+      queryType = HUDI_QUERY_TYPE_SNAPSHOT_OPT_VAL;
     } else {
-      hudiArgs.put(HUDI_BEGIN_INSTANTTIME_OPT_KEY, timeStampToHudiFormat(0L));
+      queryType = HUDI_QUERY_TYPE_INCREMENTAL_OPT_VAL;
     }
 
-    if (endTimestamp != null) {
-      hudiArgs.put(HUDI_END_INSTANTTIME_OPT_KEY, timeStampToHudiFormat(endTimestamp));
-    } else {
-      hudiArgs.put(HUDI_END_INSTANTTIME_OPT_KEY, timeStampToHudiFormat(System.currentTimeMillis()));
+    if (queryType.equals(HUDI_QUERY_TYPE_INCREMENTAL_OPT_VAL)) {
+      if (startTimestamp != null) {
+        hudiArgs.put(HUDI_BEGIN_INSTANTTIME_OPT_KEY, timeStampToHudiFormat(startTimestamp));
+      } else {
+        hudiArgs.put(HUDI_BEGIN_INSTANTTIME_OPT_KEY, timeStampToHudiFormat(0L));
+      }
+
+      if (endTimestamp != null) {
+        hudiArgs.put(HUDI_END_INSTANTTIME_OPT_KEY, timeStampToHudiFormat(endTimestamp));
+      } else {
+        hudiArgs.put(HUDI_END_INSTANTTIME_OPT_KEY, timeStampToHudiFormat(System.currentTimeMillis()));
+      }
+    } else if (queryType.equals(HUDI_QUERY_TYPE_SNAPSHOT_OPT_VAL) && endTimestamp != null) {
+      hudiArgs.put(HUDI_TIME_TRAVEL_AS_OF_INSTANT, timeStampToHudiFormat(endTimestamp));
     }
 
-    hudiArgs.put(HUDI_QUERY_TYPE_OPT_KEY, HUDI_QUERY_TYPE_INCREMENTAL_OPT_VAL);
+    hudiArgs.put(HUDI_QUERY_TYPE_OPT_KEY, queryType);
 
     // Overwrite with user provided options if any
     if (readOptions != null && !readOptions.isEmpty()) {
@@ -234,7 +279,6 @@ public class HudiEngine {
 
   @SneakyThrows
   public String timeStampToHudiFormat(Long committedOnTimeStamp) {
-    Date committedOnDate = new Timestamp(committedOnTimeStamp);
-    return dateFormat.format(committedOnDate);
+    return dateFormat.format(Instant.ofEpochMilli(committedOnTimeStamp));
   }
 }
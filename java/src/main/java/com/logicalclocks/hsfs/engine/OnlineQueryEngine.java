@@ -0,0 +1,296 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package com.logicalclocks.hsfs.engine;
+
+import com.logicalclocks.hsfs.FeatureStore;
+import com.logicalclocks.hsfs.FeatureStoreException;
+import com.logicalclocks.hsfs.Storage;
+import com.logicalclocks.hsfs.StorageConnector;
+import com.logicalclocks.hsfs.constructor.Query;
+import com.logicalclocks.hsfs.metadata.HopsworksClient;
+import com.logicalclocks.hsfs.metadata.QueryConstructorApi;
+import com.logicalclocks.hsfs.metadata.StorageConnectorApi;
+import com.logicalclocks.hsfs.util.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executes queries against the online feature store over pooled JDBC connections, without going through Spark.
+ * Used for point lookups, reads returning DataFrames go through the Spark JDBC reader.
+ */
+public class OnlineQueryEngine {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OnlineQueryEngine.class);
+
+  private static final int MAX_IDLE_CONNECTIONS = 8;
+  private static final int MAX_CONNECTIONS = 32;
+  private static final long CONNECTION_WAIT_MS = 30000;
+  private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+  private static final int MAX_CACHED_QUERIES = 256;
+
+  private static OnlineQueryEngine INSTANCE = null;
+
+  public static synchronized OnlineQueryEngine getInstance() {
+    if (INSTANCE == null) {
+      INSTANCE = new OnlineQueryEngine();
+    }
+    return INSTANCE;
+  }
+
+  /**
+   * Close the pooled connections of the engine, if it was used. A later online query creates a new engine.
+   */
+  public static synchronized void closeInstance() {
+    if (INSTANCE != null) {
+      INSTANCE.close();
+      INSTANCE = null;
+    }
+  }
+
+  private final StorageConnectorApi storageConnectorApi = new StorageConnectorApi();
+  private final QueryConstructorApi queryConstructorApi = new QueryConstructorApi();
+
+  // feature store id -> jdbc options of the online storage connector
+  private final Map<Integer, Map<String, String>> jdbcOptions = new HashMap<>();
+  // jdbc url -> idle connections, also the lock of the pool
+  private final Map<String, LinkedList<Connection>> idleConnections = new HashMap<>();
+  // jdbc url -> connections which are idle or in use, at most MAX_CONNECTIONS
+  private final Map<String, Integer> openConnections = new HashMap<>();
+  private boolean closed = false;
+  // serialized query -> online sql, the online sql only depends on the definition of the query
+  private final Map<String, String> onlineQueries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > MAX_CACHED_QUERIES;
+    }
+  };
+
+  private OnlineQueryEngine() {
+  }
+
+  /**
+   * Execute the online version of a query and return the rows as maps from column name to value. The rows are
+   * collected in memory, this is meant for point lookups returning a few rows.
+   *
+   * @param query the query to execute
+   * @param external true if the online feature store is accessed from outside of the Hopsworks cluster
+   * @return result rows
+   * @throws FeatureStoreException
+   * @throws IOException
+   * @throws SQLException
+   */
+  public List<Map<String, Object>> read(Query query, boolean external)
+      throws FeatureStoreException, IOException, SQLException {
+    FeatureStore featureStore = query.getLeftFeatureGroup().getFeatureStore();
+    String sql = getOnlineQuery(query);
+    List<Map<String, Object>> rows = new ArrayList<>();
+    String url = getUrl(featureStore, external);
+    Connection connection = getConnection(featureStore, url);
+    boolean succeeded = false;
+    try (Statement statement = connection.createStatement();
+         ResultSet resultSet = statement.executeQuery(sql)) {
+      ResultSetMetaData metaData = resultSet.getMetaData();
+      while (resultSet.next()) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+          row.put(metaData.getColumnLabel(i), resultSet.getObject(i));
+        }
+        rows.add(row);
+      }
+      succeeded = true;
+    } finally {
+      // connections are only returned to the pool if the query went through, they might be broken otherwise
+      if (succeeded) {
+        releaseConnection(url, connection);
+      } else {
+        closeConnection(url, connection);
+      }
+    }
+    return rows;
+  }
+
+  private String getOnlineQuery(Query query) throws FeatureStoreException, IOException {
+    String queryJson = HopsworksClient.getInstance().getObjectMapper().writeValueAsString(query);
+    synchronized (onlineQueries) {
+      String sql = onlineQueries.get(queryJson);
+      if (sql != null) {
+        return sql;
+      }
+    }
+    String sql = queryConstructorApi.constructQuery(query.getLeftFeatureGroup().getFeatureStore(), query)
+        .getStorageQuery(Storage.ONLINE);
+    LOGGER.info("Executing query: " + sql);
+    synchronized (onlineQueries) {
+      onlineQueries.put(queryJson, sql);
+    }
+    return sql;
+  }
+
+  /**
+   * Take an idle connection to the url, or open a new one if fewer than MAX_CONNECTIONS are open. Otherwise wait up to
+   * CONNECTION_WAIT_MS for a connection to be released.
+   */
+  private Connection getConnection(FeatureStore featureStore, String url)
+      throws FeatureStoreException, IOException, SQLException {
+    long deadline = System.currentTimeMillis() + CONNECTION_WAIT_MS;
+    while (true) {
+      Connection connection;
+      synchronized (idleConnections) {
+        if (closed) {
+          throw new FeatureStoreException("The connection to the online feature store was closed.");
+        }
+        LinkedList<Connection> connections = idleConnections.get(url);
+        if (connections != null && !connections.isEmpty()) {
+          connection = connections.poll();
+        } else if (openConnections.getOrDefault(url, 0) < MAX_CONNECTIONS) {
+          openConnections.merge(url, 1, Integer::sum);
+          break;
+        } else {
+          waitForConnection(deadline);
+          continue;
+        }
+      }
+      if (connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+        return connection;
+      }
+      closeConnection(url, connection);
+    }
+
+    boolean opened = false;
+    try {
+      Connection connection = openConnection(featureStore, url);
+      opened = true;
+      return connection;
+    } finally {
+      if (!opened) {
+        releaseSlot(url);
+      }
+    }
+  }
+
+  private void waitForConnection(long deadline) throws FeatureStoreException {
+    long waitMs = deadline - System.currentTimeMillis();
+    if (waitMs <= 0) {
+      throw new FeatureStoreException("No connection to the online feature store was released within "
+          + CONNECTION_WAIT_MS + " ms, all " + MAX_CONNECTIONS + " connections are in use.");
+    }
+    try {
+      idleConnections.wait(waitMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FeatureStoreException("Interrupted while waiting for a connection to the online feature store.", e);
+    }
+  }
+
+  private Connection openConnection(FeatureStore featureStore, String url)
+      throws FeatureStoreException, IOException, SQLException {
+    Map<String, String> options = getJdbcOptions(featureStore);
+    try {
+      return DriverManager.getConnection(url, options.get(Constants.JDBC_USER), options.get(Constants.JDBC_PWD));
+    } catch (SQLException e) {
+      // the credentials of the connector might have been rotated, refetch them once
+      synchronized (jdbcOptions) {
+        jdbcOptions.remove(featureStore.getId());
+      }
+      options = getJdbcOptions(featureStore);
+      return DriverManager.getConnection(url, options.get(Constants.JDBC_USER), options.get(Constants.JDBC_PWD));
+    }
+  }
+
+  private void releaseConnection(String url, Connection connection) throws SQLException {
+    synchronized (idleConnections) {
+      LinkedList<Connection> connections = idleConnections.computeIfAbsent(url, k -> new LinkedList<>());
+      if (!closed && connections.size() < MAX_IDLE_CONNECTIONS) {
+        connections.push(connection);
+        idleConnections.notifyAll();
+        return;
+      }
+    }
+    closeConnection(url, connection);
+  }
+
+  private void closeConnection(String url, Connection connection) throws SQLException {
+    releaseSlot(url);
+    connection.close();
+  }
+
+  private void releaseSlot(String url) {
+    synchronized (idleConnections) {
+      openConnections.merge(url, -1, Integer::sum);
+      idleConnections.notifyAll();
+    }
+  }
+
+  /**
+   * Close the idle connections, connections in use are closed when they are released.
+   */
+  public void close() {
+    List<Connection> connections = new ArrayList<>();
+    synchronized (idleConnections) {
+      closed = true;
+      idleConnections.forEach((url, idle) -> {
+        connections.addAll(idle);
+        openConnections.merge(url, -idle.size(), Integer::sum);
+      });
+      idleConnections.clear();
+      idleConnections.notifyAll();
+    }
+    for (Connection connection : connections) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        LOGGER.warn("Could not close connection to the online feature store", e);
+      }
+    }
+  }
+
+  private String getUrl(FeatureStore featureStore, boolean external) throws FeatureStoreException, IOException {
+    String url = getJdbcOptions(featureStore).get(Constants.JDBC_URL);
+    if (external) {
+      // if external is true, replace the IP coming from the storage connector with the host
+      // used during the connection setup
+      url = url.replaceAll("/[0-9.]+:", "/" + HopsworksClient.getInstance().getHost() + ":");
+    }
+    return url;
+  }
+
+  private Map<String, String> getJdbcOptions(FeatureStore featureStore) throws FeatureStoreException, IOException {
+    synchronized (jdbcOptions) {
+      Map<String, String> options = jdbcOptions.get(featureStore.getId());
+      if (options == null) {
+        StorageConnector storageConnector = storageConnectorApi.getOnlineStorageConnector(featureStore);
+        options = storageConnector.sparkOptions();
+        jdbcOptions.put(featureStore.getId(), options);
+      }
+      return options;
+    }
+  }
+}
@@ -0,0 +1,749 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package com.logicalclocks.hsfs.engine;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import com.logicalclocks.hsfs.EntityEndpointType;
+import com.logicalclocks.hsfs.Feature;
+import com.logicalclocks.hsfs.FeatureGroup;
+import com.logicalclocks.hsfs.FeatureGroupCommit;
+import com.logicalclocks.hsfs.FeatureStoreException;
+import com.logicalclocks.hsfs.HudiOperationType;
+import com.logicalclocks.hsfs.Storage;
+import com.logicalclocks.hsfs.StorageConnector;
+import com.logicalclocks.hsfs.StreamFeatureGroup;
+import com.logicalclocks.hsfs.TimeTravelFormat;
+import com.logicalclocks.hsfs.constructor.Filter;
+import com.logicalclocks.hsfs.constructor.FilterLogic;
+import com.logicalclocks.hsfs.constructor.FsQuery;
+import com.logicalclocks.hsfs.constructor.HudiFeatureGroupAlias;
+import com.logicalclocks.hsfs.constructor.Join;
+import com.logicalclocks.hsfs.constructor.JoinStrategy;
+import com.logicalclocks.hsfs.constructor.OnDemandFeatureGroupAlias;
+import com.logicalclocks.hsfs.constructor.Query;
+import com.logicalclocks.hsfs.constructor.QueryPlan;
+import com.logicalclocks.hsfs.constructor.SqlFilterCondition;
+import com.logicalclocks.hsfs.engine.hudi.HudiEngine;
+import com.logicalclocks.hsfs.metadata.FeatureGroupApi;
+import com.logicalclocks.hsfs.metadata.FeatureGroupBase;
+import com.logicalclocks.hsfs.metadata.HopsworksClient;
+import com.logicalclocks.hsfs.metadata.QueryConstructorApi;
+import com.logicalclocks.hsfs.metadata.Statistics;
+import com.logicalclocks.hsfs.util.Constants;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SaveMode;
+import org.apache.spark.sql.SparkSession;
+import org.json.JSONArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.collection.JavaConverters;
+import scala.collection.Seq;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class QueryEngine {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(QueryEngine.class);
+
+  private final StatisticsEngine statisticsEngine = new StatisticsEngine(EntityEndpointType.FEATURE_GROUP);
+  private final FeatureGroupApi featureGroupApi;
+  private final QueryConstructorApi queryConstructorApi = new QueryConstructorApi();
+  private final FeatureGroupUtils utils = new FeatureGroupUtils();
+  private final HudiEngine hudiEngine = new HudiEngine();
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  public QueryEngine() {
+    this(new FeatureGroupApi());
+  }
+
+  QueryEngine(FeatureGroupApi featureGroupApi) {
+    this.featureGroupApi = featureGroupApi;
+  }
+
+  /**
+   * Resolve the join strategies of a query into Spark join hints for the feature group aliases registered for the
+   * query. Strategies set to AUTO are planned from the last statistics of the feature groups involved in the join.
+   * Hints can only be attached to the temporary views of time travel enabled feature groups, explicit strategies on
+   * joins with other feature groups are rejected.
+   *
+   * @param query the query being executed
+   * @param fsQuery the query as constructed by the backend
+   * @return map from the alias of the temporary table to the Spark join hint to apply to it
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public Map<String, String> resolveJoinHints(Query query, FsQuery fsQuery) throws FeatureStoreException, IOException {
+    Map<Integer, JoinStrategy> strategies = new HashMap<>();
+    resolveJoinStrategies(query, getHudiFeatureGroupIds(fsQuery), strategies);
+
+    Map<String, String> joinHints = new HashMap<>();
+    if (strategies.isEmpty()) {
+      return joinHints;
+    }
+    for (HudiFeatureGroupAlias hudiFeatureGroupAlias : fsQuery.getHudiCachedFeatureGroups()) {
+      JoinStrategy strategy = strategies.get(hudiFeatureGroupAlias.getFeatureGroup().getId());
+      if (strategy != null && strategy.getSparkHint() != null) {
+        joinHints.put(hudiFeatureGroupAlias.getAlias(), strategy.getSparkHint());
+      }
+    }
+    return joinHints;
+  }
+
+  /**
+   * Spark SQL configuration a query has to be executed with for its join hints to take effect. Skewed partitions of
+   * sort merge joins are only split when the adaptive query execution is enabled.
+   *
+   * @param joinHints join hints returned by resolveJoinHints
+   * @return Spark SQL configuration of the query
+   */
+  public Map<String, String> getJoinConf(Map<String, String> joinHints) {
+    Map<String, String> joinConf = new HashMap<>();
+    if (joinHints.containsValue(JoinStrategy.SKEWED.getSparkHint())) {
+      joinConf.put("spark.sql.adaptive.enabled", "true");
+      joinConf.put("spark.sql.adaptive.skewJoin.enabled", "true");
+    }
+    return joinConf;
+  }
+
+  private Set<Integer> getHudiFeatureGroupIds(FsQuery fsQuery) {
+    if (fsQuery.getHudiCachedFeatureGroups() == null) {
+      return new HashSet<>();
+    }
+    return fsQuery.getHudiCachedFeatureGroups().stream()
+        .map(hudiFeatureGroupAlias -> hudiFeatureGroupAlias.getFeatureGroup().getId())
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * Resolve the join strategies of the joins of a query and of its sub queries.
+   *
+   * @return number of REST calls made to read the statistics used to plan the AUTO joins
+   */
+  private int resolveJoinStrategies(Query query, Set<Integer> hudiFeatureGroupIds,
+                                    Map<Integer, JoinStrategy> strategies) throws FeatureStoreException, IOException {
+    int restCalls = 0;
+    for (Join join : query.getJoins()) {
+      FeatureGroupBase rightFeatureGroup = join.getQuery().getLeftFeatureGroup();
+      if (join.getStrategy() != null) {
+        if (rightFeatureGroup.getId().equals(query.getLeftFeatureGroup().getId())) {
+          LOGGER.info("Ignoring join strategy " + join.getStrategy() + " for self join of feature group "
+              + rightFeatureGroup.getName());
+        } else if (!hudiFeatureGroupIds.contains(rightFeatureGroup.getId())) {
+          if (join.getStrategy() != JoinStrategy.AUTO) {
+            throw new FeatureStoreException("Join strategies can only be set on joins with time travel enabled "
+                + "feature groups, " + rightFeatureGroup.getName() + " is not");
+          }
+          LOGGER.info("Ignoring join strategy AUTO for feature group " + rightFeatureGroup.getName()
+              + " which is not time travel enabled");
+        } else {
+          JoinStrategy strategy = join.getStrategy();
+          if (strategy == JoinStrategy.AUTO) {
+            strategy = planJoin(query, join);
+            // the statistics of the left side are only read if the right side is not broadcast
+            restCalls += strategy == JoinStrategy.BROADCAST ? 1 : 2;
+          }
+          LOGGER.info("Using join strategy " + strategy + " for feature group " + rightFeatureGroup.getName());
+          strategies.put(rightFeatureGroup.getId(), strategy);
+        }
+      }
+      restCalls += resolveJoinStrategies(join.getQuery(), hudiFeatureGroupIds, strategies);
+    }
+    return restCalls;
+  }
+
+  /**
+   * Choose a join strategy from the statistics of the two sides of the join. Small right sides are broadcast, joins
+   * on keys with a dominant value on either side are handled as skewed, everything else is left to Spark.
+   */
+  private JoinStrategy planJoin(Query query, Join join) throws FeatureStoreException, IOException {
+    SparkSession sparkSession = SparkEngine.getInstance().getSparkSession();
+    long broadcastRowThreshold = Long.parseLong(sparkSession.conf().get(Constants.JOIN_BROADCAST_ROW_THRESHOLD,
+        String.valueOf(Constants.JOIN_BROADCAST_ROW_THRESHOLD_DEFAULT)));
+    double skewRatioThreshold = Double.parseDouble(sparkSession.conf().get(Constants.JOIN_SKEW_RATIO_THRESHOLD,
+        String.valueOf(Constants.JOIN_SKEW_RATIO_THRESHOLD_DEFAULT)));
+
+    JsonNode rightStatistics = getLastStatistics(join.getQuery().getLeftFeatureGroup());
+    if (isBroadcast(rightStatistics, broadcastRowThreshold)) {
+      return JoinStrategy.BROADCAST;
+    }
+
+    JsonNode leftStatistics = getLastStatistics(query.getLeftFeatureGroup());
+    if (isSkewed(leftStatistics, getJoinKeys(join, true), skewRatioThreshold)
+        || isSkewed(rightStatistics, getJoinKeys(join, false), skewRatioThreshold)) {
+      return JoinStrategy.SKEWED;
+    }
+    return JoinStrategy.AUTO;
+  }
+
+  static boolean isBroadcast(JsonNode statistics, long broadcastRowThreshold) {
+    Long rows = getRowCount(statistics);
+    return rows != null && rows <= broadcastRowThreshold;
+  }
+
+  static boolean isSkewed(JsonNode statistics, List<String> keys, double skewRatioThreshold) {
+    return getMaxValueRatio(statistics, keys) >= skewRatioThreshold;
+  }
+
+  private List<String> getJoinKeys(Join join, boolean left) {
+    List<Feature> keys = join.getOn();
+    if (keys == null || keys.isEmpty()) {
+      keys = left ? join.getLeftOn() : join.getRightOn();
+    }
+    if (keys == null || keys.isEmpty()) {
+      // the backend joins on the primary keys of the right feature group
+      return getPrimaryKeyNames(join.getQuery().getLeftFeatureGroup());
+    }
+    return keys.stream().map(Feature::getName).collect(Collectors.toList());
+  }
+
+  private JsonNode getLastStatistics(FeatureGroupBase featureGroup) throws FeatureStoreException, IOException {
+    Statistics statistics = statisticsEngine.getLast(featureGroup);
+    if (statistics == null || Strings.isNullOrEmpty(statistics.getContent())) {
+      LOGGER.info("No statistics available for feature group " + featureGroup.getName());
+      return null;
+    }
+    return objectMapper.readTree(statistics.getContent());
+  }
+
+  static Long getRowCount(JsonNode statistics) {
+    if (statistics == null || !statistics.path("columns").elements().hasNext()) {
+      return null;
+    }
+    JsonNode column = statistics.path("columns").elements().next();
+    return column.path("numRecordsNonNull").asLong() + column.path("numRecordsNull").asLong();
+  }
+
+  static double getMaxValueRatio(JsonNode statistics, List<String> columns) {
+    double maxRatio = 0.0;
+    if (statistics == null) {
+      return maxRatio;
+    }
+    for (JsonNode column : statistics.path("columns")) {
+      if (!columns.contains(column.path("column").asText())) {
+        continue;
+      }
+      for (JsonNode bucket : column.path("histogram")) {
+        maxRatio = Math.max(maxRatio, bucket.path("ratio").asDouble());
+      }
+    }
+    return maxRatio;
+  }
+
+  /**
+   * Compute the location of the cached result of a query. The location is derived from the offline query, the read
+   * options, the time travel boundaries and the latest commit of every feature group read, so that a new commit on
+   * any of them invalidates the cached result.
+   *
+   * @param query the query being executed
+   * @param fsQuery the query as constructed by the backend
+   * @param readOptions read options of the query
+   * @param cacheLocation base directory of the result cache, the project Resources directory if null
+   * @return path of the cached result, or null if the result of the query cannot be cached
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public String getResultCachePath(Query query, FsQuery fsQuery, Map<String, String> readOptions,
+                                   String cacheLocation) throws FeatureStoreException, IOException {
+    if (fsQuery.getOnDemandFeatureGroups() != null && !fsQuery.getOnDemandFeatureGroups().isEmpty()) {
+      LOGGER.info("Query reads on demand feature groups, the result cache is not used");
+      return null;
+    }
+
+    Set<Integer> featureGroupIds = new HashSet<>();
+    collectFeatureGroupIds(query, featureGroupIds);
+    Map<String, HudiFeatureGroupAlias> hudiAliases = new TreeMap<>();
+    if (fsQuery.getHudiCachedFeatureGroups() != null) {
+      for (HudiFeatureGroupAlias hudiFeatureGroupAlias : fsQuery.getHudiCachedFeatureGroups()) {
+        hudiAliases.put(hudiFeatureGroupAlias.getAlias(), hudiFeatureGroupAlias);
+        featureGroupIds.remove(hudiFeatureGroupAlias.getFeatureGroup().getId());
+      }
+    }
+    if (!featureGroupIds.isEmpty()) {
+      // without a commit timeline there is no way to tell whether the data changed
+      LOGGER.info("Query reads feature groups without time travel, the result cache is not used");
+      return null;
+    }
+
+    StringBuilder cacheKey = new StringBuilder(fsQuery.getStorageQuery(Storage.OFFLINE));
+    if (readOptions != null) {
+      cacheKey.append(new TreeMap<>(readOptions));
+    }
+    for (HudiFeatureGroupAlias hudiFeatureGroupAlias : hudiAliases.values()) {
+      List<FeatureGroupCommit> commits =
+          featureGroupApi.getCommitDetails(hudiFeatureGroupAlias.getFeatureGroup(), null, 1);
+      cacheKey.append(";").append(hudiFeatureGroupAlias.getAlias())
+          .append(":").append(hudiFeatureGroupAlias.getFeatureGroup().getId())
+          .append(":").append(hudiFeatureGroupAlias.getLeftFeatureGroupStartTimestamp())
+          .append(":").append(hudiFeatureGroupAlias.getLeftFeatureGroupEndTimestamp())
+          .append(":").append(commits == null || commits.isEmpty() ? null : commits.get(0).getCommitID());
+    }
+
+    if (Strings.isNullOrEmpty(cacheLocation)) {
+      cacheLocation = "/Projects/" + HopsworksClient.getInstance().getProject().getProjectName()
+          + "/Resources/" + Constants.QUERY_RESULT_CACHE_DIR;
+    }
+    return new Path(cacheLocation,
+        Hashing.sha256().hashString(cacheKey.toString(), StandardCharsets.UTF_8).toString()).toString();
+  }
+
+  /**
+   * Read a cached query result.
+   *
+   * @param resultCachePath path returned by getResultCachePath
+   * @return the cached result, or null if the result was not cached yet
+   * @throws IOException
+   */
+  public Dataset<Row> readResultCache(String resultCachePath) throws IOException {
+    SparkSession sparkSession = SparkEngine.getInstance().getSparkSession();
+    Path successMarker = new Path(resultCachePath, "_SUCCESS");
+    FileSystem fileSystem = successMarker.getFileSystem(sparkSession.sparkContext().hadoopConfiguration());
+    if (!fileSystem.exists(successMarker)) {
+      return null;
+    }
+    LOGGER.info("Reading query result from cache " + resultCachePath);
+    return sparkSession.read().parquet(resultCachePath);
+  }
+
+  /**
+   * Materialize a query result in the cache and return it read back from the cache, so that the query is executed
+   * only once.
+   *
+   * @param result the query result
+   * @param resultCachePath path returned by getResultCachePath
+   * @return the cached result
+   * @throws IOException
+   */
+  public Dataset<Row> writeResultCache(Dataset<Row> result, String resultCachePath) throws IOException {
+    LOGGER.info("Writing query result to cache " + resultCachePath);
+    result.write().mode(SaveMode.Overwrite).parquet(resultCachePath);
+    evictResultCache(new Path(resultCachePath).getParent());
+    return SparkEngine.getInstance().getSparkSession().read().parquet(resultCachePath);
+  }
+
+  /**
+   * Delete the cached results written longer ago than the time to live of the cache. Results cached before a new
+   * commit on one of their feature groups are never read again and are removed this way.
+   */
+  private void evictResultCache(Path cacheLocation) throws IOException {
+    SparkSession sparkSession = SparkEngine.getInstance().getSparkSession();
+    long ttlHours = Long.parseLong(sparkSession.conf().get(Constants.QUERY_RESULT_CACHE_TTL_HOURS,
+        String.valueOf(Constants.QUERY_RESULT_CACHE_TTL_HOURS_DEFAULT)));
+    evictResultCache(cacheLocation.getFileSystem(sparkSession.sparkContext().hadoopConfiguration()), cacheLocation,
+        System.currentTimeMillis() - TimeUnit.HOURS.toMillis(ttlHours));
+  }
+
+  static void evictResultCache(FileSystem fileSystem, Path cacheLocation, long expiration) throws IOException {
+    for (FileStatus cachedResult : fileSystem.listStatus(cacheLocation)) {
+      if (cachedResult.isDirectory() && cachedResult.getModificationTime() < expiration) {
+        LOGGER.info("Evicting expired query result " + cachedResult.getPath());
+        fileSystem.delete(cachedResult.getPath(), true);
+      }
+    }
+  }
+
+  /**
+   * Upsert into a feature group the rows of a query affected by the commits of its feature groups in the given time
+   * range. The primary keys of the left feature group changed in the range, and the left keys joining to rows
+   * changed in the joined feature groups, are collected first. The query is then executed with its left feature
+   * group restricted to those keys and the result is upserted into the target feature group.
+   *
+   * @param query the query whose result is materialized in the feature group
+   * @param featureGroup time travel enabled feature group holding the materialized result
+   * @param wallclockStartTime start of the commit range
+   * @param wallclockEndTime end of the commit range
+   * @param writeOptions write options for the upsert
+   * @throws FeatureStoreException
+   * @throws IOException
+   * @throws ParseException
+   */
+  public void materializeIncremental(Query query, FeatureGroup featureGroup, String wallclockStartTime,
+                                     String wallclockEndTime, Map<String, String> writeOptions)
+      throws FeatureStoreException, IOException, ParseException {
+    if (featureGroup.getTimeTravelFormat() != TimeTravelFormat.HUDI) {
+      throw new FeatureStoreException("Incremental materialization requires a time travel enabled feature group");
+    }
+
+    FeatureGroupBase leftFeatureGroup = query.getLeftFeatureGroup();
+    List<String> leftPrimaryKeys = getPrimaryKeyNames(leftFeatureGroup);
+    List<String> selectedFeatures =
+        query.getLeftFeatures().stream().map(Feature::getName).collect(Collectors.toList());
+    if (leftPrimaryKeys.isEmpty() || !selectedFeatures.containsAll(leftPrimaryKeys)) {
+      throw new FeatureStoreException("Incremental materialization requires the query to select the primary keys of "
+          + "feature group " + leftFeatureGroup.getName());
+    }
+    // validate the whole query before reading the changes of any of its feature groups
+    checkTimeTravelEnabled(leftFeatureGroup);
+    for (Join join : query.getJoins()) {
+      if (!join.getQuery().getJoins().isEmpty()) {
+        throw new FeatureStoreException("Incremental materialization supports only a single level of joins");
+      }
+      checkTimeTravelEnabled(join.getQuery().getLeftFeatureGroup());
+    }
+
+    Dataset<Row> changedKeys = readChangedKeys(leftFeatureGroup, leftPrimaryKeys, wallclockStartTime,
+        wallclockEndTime);
+    for (Join join : query.getJoins()) {
+      List<String> leftKeys = getJoinKeys(join, true);
+      List<String> rightKeys = getJoinKeys(join, false);
+
+      Dataset<Row> changedRightKeys = readChangedKeys(join.getQuery().getLeftFeatureGroup(), rightKeys,
+          wallclockStartTime, wallclockEndTime);
+      for (int i = 0; i < rightKeys.size(); i++) {
+        changedRightKeys = changedRightKeys.withColumnRenamed(rightKeys.get(i), leftKeys.get(i));
+      }
+
+      // map the changed rows of the joined feature group to the left rows they are joined to
+      Set<String> leftColumns = new LinkedHashSet<>(leftPrimaryKeys);
+      leftColumns.addAll(leftKeys);
+      Dataset<Row> affectedKeys = ((Dataset<Row>) leftFeatureGroup.select(new ArrayList<>(leftColumns)).read())
+          .join(changedRightKeys.distinct(), toSeq(leftKeys), "left_semi")
+          .selectExpr(leftPrimaryKeys.toArray(new String[0]));
+      changedKeys = changedKeys.union(affectedKeys);
+    }
+    changedKeys = changedKeys.distinct();
+
+    if (changedKeys.isEmpty()) {
+      LOGGER.info("No changes between " + wallclockStartTime + " and " + wallclockEndTime + ", nothing to materialize");
+      return;
+    }
+
+    FsQuery fsQuery = queryConstructorApi.constructQuery(leftFeatureGroup.getFeatureStore(), query);
+    fsQuery.registerOnDemandFeatureGroups();
+    Map<String, String> joinHints = resolveJoinHints(query, fsQuery);
+    fsQuery.registerHudiFeatureGroups(new HashMap<>(), joinHints);
+
+    // restrict the left feature group to the affected keys, the joins then only process the affected rows
+    HudiFeatureGroupAlias leftAlias = fsQuery.getHudiCachedFeatureGroups().stream()
+        .filter(alias -> alias.getFeatureGroup().getId().equals(leftFeatureGroup.getId()))
+        .findFirst()
+        .orElseThrow(() -> new FeatureStoreException("Feature group " + leftFeatureGroup.getName()
+            + " is not time travel enabled"));
+    SparkSession sparkSession = SparkEngine.getInstance().getSparkSession();
+    sparkSession.table(leftAlias.getAlias())
+        .join(changedKeys, toSeq(leftPrimaryKeys), "left_semi")
+        .createOrReplaceTempView(leftAlias.getAlias());
+
+    LOGGER.info("Executing query: " + fsQuery.getStorageQuery(Storage.OFFLINE));
+    // the insert plans the query again, keep the join configuration until it completed
+    Map<String, String> sessionConf = SparkEngine.getInstance().setSqlConf(getJoinConf(joinHints));
+    try {
+      Dataset<Row> result = SparkEngine.getInstance().sql(fsQuery.getStorageQuery(Storage.OFFLINE));
+      featureGroup.insert(result, null, false, HudiOperationType.UPSERT, writeOptions);
+    } finally {
+      SparkEngine.getInstance().setSqlConf(sessionConf);
+    }
+  }
+
+  private void checkTimeTravelEnabled(FeatureGroupBase featureGroup) throws FeatureStoreException {
+    if (!((featureGroup instanceof FeatureGroup && featureGroup.getTimeTravelFormat() == TimeTravelFormat.HUDI)
+        || featureGroup instanceof StreamFeatureGroup)) {
+      throw new FeatureStoreException("Incremental materialization requires all feature groups of the query to be "
+          + "time travel enabled, " + featureGroup.getName() + " is not");
+    }
+  }
+
+  private Dataset<Row> readChangedKeys(FeatureGroupBase featureGroup, List<String> keys, String wallclockStartTime,
+                                       String wallclockEndTime)
+      throws FeatureStoreException, IOException, ParseException {
+    return ((Dataset<Row>) featureGroup.select(keys).pullChanges(wallclockStartTime, wallclockEndTime).read())
+        .selectExpr(keys.toArray(new String[0]));
+  }
+
+  private List<String> getPrimaryKeyNames(FeatureGroupBase featureGroup) {
+    return featureGroup.getFeatures().stream()
+        .filter(feature -> Boolean.TRUE.equals(feature.getPrimary()))
+        .map(Feature::getName)
+        .collect(Collectors.toList());
+  }
+
+  private Seq<String> toSeq(List<String> columns) {
+    return JavaConverters.asScalaIteratorConverter(columns.iterator()).asScala().toSeq();
+  }
+
+  /**
+   * Build the plan of the offline execution of a query without executing it. For every feature group read the plan
+   * reports the storage, the estimated rows from the last statistics, the estimated bytes of the latest file slices
+   * of Hudi tables or of the partition directories of Hive tables, the partitions pruned by the query filters and the
+   * join strategy. The REST calls reported are the ones reading the query would make.
+   *
+   * @param query the query to explain
+   * @param resultCacheEnabled whether the result of the query is cached
+   * @return query plan
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public QueryPlan explain(Query query, boolean resultCacheEnabled) throws FeatureStoreException, IOException {
+    FsQuery fsQuery = queryConstructorApi.constructQuery(query.getLeftFeatureGroup().getFeatureStore(), query);
+    int restCalls = 1;
+
+    Set<Integer> hudiFeatureGroupIds = getHudiFeatureGroupIds(fsQuery);
+    Map<Integer, JoinStrategy> strategies = new HashMap<>();
+    restCalls += resolveJoinStrategies(query, hudiFeatureGroupIds, strategies);
+
+    List<FeatureGroupBase> featureGroups = new ArrayList<>();
+    List<FilterLogic> filters = new ArrayList<>();
+    collectReads(query, featureGroups, filters);
+
+    boolean onDemand = fsQuery.getOnDemandFeatureGroups() != null && !fsQuery.getOnDemandFeatureGroups().isEmpty();
+    if (resultCacheEnabled && !onDemand
+        && featureGroups.stream().allMatch(featureGroup -> hudiFeatureGroupIds.contains(featureGroup.getId()))) {
+      // the cache key reads the last commit of every feature group
+      restCalls += fsQuery.getHudiCachedFeatureGroups().size();
+    }
+
+    QueryPlan queryPlan = new QueryPlan();
+    queryPlan.setQuery(fsQuery.getStorageQuery(Storage.OFFLINE));
+    for (FeatureGroupBase featureGroup : featureGroups) {
+      QueryPlan.FeatureGroupRead read = new QueryPlan.FeatureGroupRead();
+      read.setFeatureGroup(featureGroup.getName());
+      read.setVersion(featureGroup.getVersion());
+      read.setJoinStrategy(featureGroup.getId().equals(query.getLeftFeatureGroup().getId())
+          ? null : strategies.get(featureGroup.getId()));
+
+      HudiFeatureGroupAlias hudiAlias = fsQuery.getHudiCachedFeatureGroups() == null ? null
+          : fsQuery.getHudiCachedFeatureGroups().stream()
+              .filter(alias -> alias.getFeatureGroup().getId().equals(featureGroup.getId()))
+              .findFirst().orElse(null);
+      OnDemandFeatureGroupAlias onDemandAlias = fsQuery.getOnDemandFeatureGroups() == null ? null
+          : fsQuery.getOnDemandFeatureGroups().stream()
+              .filter(alias -> alias.getOnDemandFeatureGroup().getId().equals(featureGroup.getId()))
+              .findFirst().orElse(null);
+
+      Long rows = getRowCount(getLastStatistics(featureGroup));
+      read.setEstimatedRows(rows);
+
+      if (onDemandAlias != null) {
+        // the data of on demand feature groups lives outside of the feature store, it cannot be listed
+        read.setAlias(onDemandAlias.getAlias());
+        read.setStorage("ON_DEMAND");
+        StorageConnector storageConnector = onDemandAlias.getOnDemandFeatureGroup().getStorageConnector();
+        if (storageConnector instanceof StorageConnector.S3Connector
+            || storageConnector instanceof StorageConnector.RedshiftConnector
+            || storageConnector instanceof StorageConnector.JdbcConnector) {
+          // the connector is refetched to refresh its credentials before reading
+          restCalls++;
+        }
+      } else {
+        List<String> partitionColumns = featureGroup.getFeatures().stream()
+            .filter(feature -> Boolean.TRUE.equals(feature.getPartition()))
+            .map(Feature::getName)
+            .collect(Collectors.toList());
+        Map<String, Long> partitionSizes;
+        if (hudiAlias != null) {
+          read.setAlias(hudiAlias.getAlias());
+          read.setStorage("HUDI");
+          String maxInstant = hudiAlias.getLeftFeatureGroupEndTimestamp() != null
+              ? utils.timeStampToHudiFormat(hudiAlias.getLeftFeatureGroupEndTimestamp()) : null;
+          partitionSizes = hudiEngine.getPartitionSizes(SparkEngine.getInstance().getSparkSession(), featureGroup,
+              maxInstant);
+        } else {
+          read.setStorage("HIVE");
+          partitionSizes = getHivePartitionSizes(featureGroup.getLocation(), partitionColumns.size());
+        }
+
+        long totalBytes = 0L;
+        long selectedBytes = 0L;
+        int selectedPartitions = 0;
+        for (Map.Entry<String, Long> partition : partitionSizes.entrySet()) {
+          totalBytes += partition.getValue();
+          Map<String, String> partitionValues = getPartitionValues(partition.getKey(), partitionColumns);
+          if (filters.stream().allMatch(filter -> mayMatch(filter, featureGroup, partitionValues))) {
+            selectedBytes += partition.getValue();
+            selectedPartitions++;
+          }
+        }
+        read.setPartitions(partitionSizes.size());
+        read.setPartitionsPruned(partitionSizes.size() - selectedPartitions);
+        read.setEstimatedBytes(selectedBytes);
+        if (rows != null && totalBytes > 0) {
+          read.setEstimatedRows((long) (rows * ((double) selectedBytes / totalBytes)));
+        }
+      }
+      queryPlan.getFeatureGroupReads().add(read);
+    }
+    queryPlan.setRestCalls(restCalls);
+    return queryPlan;
+  }
+
+  private List<Join> getJoins(Query query) {
+    List<Join> joins = new ArrayList<>();
+    for (Join join : query.getJoins()) {
+      joins.add(join);
+      joins.addAll(getJoins(join.getQuery()));
+    }
+    return joins;
+  }
+
+  private void collectReads(Query query, List<FeatureGroupBase> featureGroups, List<FilterLogic> filters) {
+    featureGroups.add(query.getLeftFeatureGroup());
+    if (query.getFilter() != null) {
+      filters.add(query.getFilter());
+    }
+    for (Join join : query.getJoins()) {
+      collectReads(join.getQuery(), featureGroups, filters);
+    }
+  }
+
+  /**
+   * Size of every partition of a Hive feature group table, from the content summary of the partition directories.
+   */
+  private Map<String, Long> getHivePartitionSizes(String location, int partitionDepth) throws IOException {
+    Map<String, Long> partitionSizes = new HashMap<>();
+    if (Strings.isNullOrEmpty(location)) {
+      return partitionSizes;
+    }
+    Path basePath = new Path(location);
+    FileSystem fileSystem =
+        basePath.getFileSystem(SparkEngine.getInstance().getSparkSession().sparkContext().hadoopConfiguration());
+    if (!fileSystem.exists(basePath)) {
+      return partitionSizes;
+    }
+    basePath = fileSystem.makeQualified(basePath);
+
+    List<Path> partitions = Collections.singletonList(basePath);
+    for (int i = 0; i < partitionDepth; i++) {
+      List<Path> subPartitions = new ArrayList<>();
+      for (Path partition : partitions) {
+        for (FileStatus status : fileSystem.listStatus(partition,
+            path -> !path.getName().startsWith(".") && !path.getName().startsWith("_"))) {
+          if (status.isDirectory()) {
+            subPartitions.add(status.getPath());
+          }
+        }
+      }
+      partitions = subPartitions;
+    }
+    for (Path partition : partitions) {
+      String relativePath = partition.toString().substring(basePath.toString().length());
+      partitionSizes.put(relativePath.startsWith("/") ? relativePath.substring(1) : relativePath,
+          fileSystem.getContentSummary(partition).getLength());
+    }
+    return partitionSizes;
+  }
+
+  static Map<String, String> getPartitionValues(String partitionPath, List<String> partitionColumns) {
+    Map<String, String> partitionValues = new HashMap<>();
+    if (partitionPath.isEmpty()) {
+      return partitionValues;
+    }
+    String[] components = partitionPath.split("/");
+    for (int i = 0; i < components.length && i < partitionColumns.size(); i++) {
+      // hive tables use col=value directories, Hudi tables only the value
+      String value = components[i];
+      partitionValues.put(partitionColumns.get(i), value.contains("=") ? value.substring(value.indexOf("=") + 1)
+          : value);
+    }
+    return partitionValues;
+  }
+
+  /**
+   * Evaluate a filter against the partition values of a feature group. Conditions on other features cannot exclude
+   * the partition and evaluate to true.
+   */
+  static boolean mayMatch(FilterLogic filterLogic, FeatureGroupBase featureGroup,
+                          Map<String, String> partitionValues) {
+    boolean left = filterLogic.getLeftFilter() != null
+        ? mayMatch(filterLogic.getLeftFilter(), featureGroup, partitionValues)
+        : filterLogic.getLeftLogic() == null || mayMatch(filterLogic.getLeftLogic(), featureGroup, partitionValues);
+    boolean right = filterLogic.getRightFilter() != null
+        ? mayMatch(filterLogic.getRightFilter(), featureGroup, partitionValues)
+        : filterLogic.getRightLogic() == null || mayMatch(filterLogic.getRightLogic(), featureGroup, partitionValues);
+    switch (filterLogic.getType()) {
+      case OR:
+        return left || right;
+      case AND:
+        return left && right;
+      default:
+        return left;
+    }
+  }
+
+  static boolean mayMatch(Filter filter, FeatureGroupBase featureGroup, Map<String, String> partitionValues) {
+    Feature feature = filter.getFeature();
+    if (feature.getFeatureGroupId() != null && !feature.getFeatureGroupId().equals(featureGroup.getId())) {
+      return true;
+    }
+    String partitionValue = partitionValues.get(feature.getName());
+    // comparisons between features are serialized as json objects
+    if (partitionValue == null || filter.getValue() == null || filter.getValue().startsWith("{")) {
+      return true;
+    }
+
+    if (filter.getCondition() == SqlFilterCondition.IN) {
+      JSONArray values = new JSONArray(filter.getValue());
+      for (int i = 0; i < values.length(); i++) {
+        if (compareValues(partitionValue, values.get(i).toString()) == 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    int comparison = compareValues(partitionValue, filter.getValue());
+    switch (filter.getCondition()) {
+      case EQUALS:
+        return comparison == 0;
+      case NOT_EQUALS:
+        return comparison != 0;
+      case GREATER_THAN:
+        return comparison > 0;
+      case GREATER_THAN_OR_EQUAL:
+        return comparison >= 0;
+      case LESS_THAN:
+        return comparison < 0;
+      case LESS_THAN_OR_EQUAL:
+        return comparison <= 0;
+      default:
+        return true;
+    }
+  }
+
+  private static int compareValues(String partitionValue, String filterValue) {
+    try {
+      return Double.compare(Double.parseDouble(partitionValue), Double.parseDouble(filterValue));
+    } catch (NumberFormatException e) {
+      return partitionValue.compareTo(filterValue);
+    }
+  }
+
+  private void collectFeatureGroupIds(Query query, Set<Integer> featureGroupIds) {
+    featureGroupIds.add(query.getLeftFeatureGroup().getId());
+    for (Join join : query.getJoins()) {
+      collectFeatureGroupIds(join.getQuery(), featureGroupIds);
+    }
+  }
+}
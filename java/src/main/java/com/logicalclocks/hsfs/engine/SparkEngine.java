@@ -41,6 +41,7 @@ import org.apache.avro.Schema;
 import org.apache.avro.SchemaParseException;
 import org.apache.hadoop.fs.Path;
 import org.apache.spark.SparkFiles;
+import org.apache.spark.api.java.function.VoidFunction2;
 import org.apache.spark.sql.Column;
 import org.apache.spark.sql.DataFrameReader;
 import org.apache.spark.sql.Dataset;
@@ -51,6 +52,8 @@ import org.apache.spark.sql.SparkSession;
 import static org.apache.spark.sql.avro.functions.from_avro;
 import static org.apache.spark.sql.functions.col;
 import static org.apache.spark.sql.functions.from_json;
+import static org.apache.spark.sql.functions.hash;
+import static org.apache.spark.sql.functions.pmod;
 import static org.apache.spark.sql.avro.functions.to_avro;
 import static org.apache.spark.sql.functions.concat;
 import static org.apache.spark.sql.functions.lit;
@@ -60,8 +63,12 @@ import org.apache.spark.sql.streaming.DataStreamReader;
 import org.apache.spark.sql.streaming.DataStreamWriter;
 import org.apache.spark.sql.streaming.StreamingQuery;
 import org.apache.spark.sql.streaming.StreamingQueryException;
+import org.apache.spark.sql.streaming.Trigger;
+import org.apache.spark.sql.types.MapType;
 import org.apache.spark.sql.types.StructField;
+import org.apache.spark.storage.StorageLevel;
 import scala.collection.JavaConverters;
+import scala.math.BigInt;
 
 import java.io.IOException;
 
@@ -70,8 +77,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
@@ -91,6 +100,7 @@ public class SparkEngine {
 
   private FeatureGroupUtils utils = new FeatureGroupUtils();
   private HudiEngine hudiEngine = new HudiEngine();
+  private StreamingProgressListener streamingProgressListener;
 
   private SparkEngine() {
     sparkSession = SparkSession.builder()
@@ -146,6 +156,49 @@ public class SparkEngine {
     return sparkSession.sql(query);
   }
 
+  /**
+   * Execute a query with additional Spark SQL configuration. The configuration is set on the session while the query
+   * is planned and restored afterwards. Actions on the returned dataset run the physical plan it was planned with,
+   * datasets derived from it are planned with the configuration of the session.
+   *
+   * @param query the query to execute
+   * @param sqlConf Spark SQL configuration of the query
+   * @return the result of the query
+   */
+  public Dataset<Row> sql(String query, Map<String, String> sqlConf) {
+    if (sqlConf == null || sqlConf.isEmpty()) {
+      return sql(query);
+    }
+    Map<String, String> sessionConf = setSqlConf(sqlConf);
+    try {
+      Dataset<Row> result = sparkSession.sql(query);
+      result.queryExecution().executedPlan();
+      return result;
+    } finally {
+      setSqlConf(sessionConf);
+    }
+  }
+
+  /**
+   * Set Spark SQL configuration on the session.
+   *
+   * @param sqlConf configuration to set, null values unset the key
+   * @return the previous configuration of the keys, to restore it with setSqlConf
+   */
+  public Map<String, String> setSqlConf(Map<String, String> sqlConf) {
+    Map<String, String> previousConf = new HashMap<>();
+    for (Map.Entry<String, String> entry : sqlConf.entrySet()) {
+      scala.Option<String> previousValue = sparkSession.conf().getOption(entry.getKey());
+      previousConf.put(entry.getKey(), previousValue.isDefined() ? previousValue.get() : null);
+      if (entry.getValue() != null) {
+        sparkSession.conf().set(entry.getKey(), entry.getValue());
+      } else {
+        sparkSession.conf().unset(entry.getKey());
+      }
+    }
+    return previousConf;
+  }
+
   public Dataset<Row> registerOnDemandTemporaryTable(OnDemandFeatureGroup onDemandFeatureGroup, String alias)
       throws FeatureStoreException, IOException {
     Dataset<Row> dataset = (Dataset<Row>) onDemandFeatureGroup.getStorageConnector()
@@ -173,8 +226,16 @@ public class SparkEngine {
   public void registerHudiTemporaryTable(FeatureGroupBase featureGroup, String alias,
                                          Long leftFeaturegroupStartTimestamp,
                                          Long leftFeaturegroupEndTimestamp, Map<String, String> readOptions) {
+    registerHudiTemporaryTable(featureGroup, alias, leftFeaturegroupStartTimestamp, leftFeaturegroupEndTimestamp,
+        readOptions, null);
+  }
+
+  public void registerHudiTemporaryTable(FeatureGroupBase featureGroup, String alias,
+                                         Long leftFeaturegroupStartTimestamp,
+                                         Long leftFeaturegroupEndTimestamp, Map<String, String> readOptions,
+                                         String joinHint) {
     hudiEngine.registerTemporaryTable(sparkSession, featureGroup, alias,
-        leftFeaturegroupStartTimestamp, leftFeaturegroupEndTimestamp, readOptions);
+        leftFeaturegroupStartTimestamp, leftFeaturegroupEndTimestamp, readOptions, joinHint);
   }
 
   /**
@@ -349,7 +410,8 @@ public class SparkEngine {
   public <S> void writeOnlineDataframe(FeatureGroupBase featureGroupBase, S dataset, String onlineTopicName,
                                          Map<String, String> writeOptions)
       throws FeatureStoreException, IOException {
-    onlineFeatureGroupToAvro(featureGroupBase, encodeComplexFeatures(featureGroupBase, (Dataset<Row>) dataset))
+    onlineFeatureGroupToAvro(featureGroupBase, encodeComplexFeatures(featureGroupBase,
+        partitionByPrimaryKey(featureGroupBase, (Dataset<Row>) dataset, writeOptions)))
         .write()
         .format(Constants.KAFKA_FORMAT)
         .options(writeOptions)
@@ -362,9 +424,11 @@ public class SparkEngine {
                                              String checkpointLocation, Map<String, String> writeOptions)
       throws FeatureStoreException, IOException, StreamingQueryException, TimeoutException {
 
+    checkStreamRateLimit(writeOptions);
     Dataset<Row> dataset = (Dataset<Row>) datasetGeneric;
     DataStreamWriter<Row> writer =
-        onlineFeatureGroupToAvro(featureGroupBase, encodeComplexFeatures(featureGroupBase, dataset))
+        onlineFeatureGroupToAvro(featureGroupBase, encodeComplexFeatures(featureGroupBase,
+            partitionByPrimaryKey(featureGroupBase, dataset, writeOptions)))
         .writeStream()
         .format(Constants.KAFKA_FORMAT)
         .outputMode(outputMode)
@@ -375,13 +439,126 @@ public class SparkEngine {
         .option("topic", featureGroupBase.getOnlineTopicName());
 
     // start streaming to online feature group topic
-    StreamingQuery query = writer.start();
+    StreamingQuery query = startStream(writer, writeOptions);
+    if (awaitTermination) {
+      query.awaitTermination(timeout);
+    }
+    return query;
+  }
+
+  /**
+   * Writes a streaming dataframe to the offline Hudi feature group. Each micro-batch is upserted into the Hudi table
+   * and, if online write options are provided, written to the online feature group topic as well.
+   *
+   * @param featureGroupBase
+   * @param dataset
+   * @param queryName name of the streaming query, identifies the query in the commits of the feature group
+   * @param outputMode
+   * @param awaitTermination
+   * @param timeout
+   * @param checkpointLocation
+   * @param offlineWriteOptions
+   * @param onlineWriteOptions kafka configuration, null to only write to the offline feature group
+   * @return streaming query
+   */
+  public StreamingQuery writeStreamOfflineDataframe(FeatureGroupBase featureGroupBase, Dataset<Row> dataset,
+                                                    String queryName, String outputMode, boolean awaitTermination,
+                                                    Long timeout, String checkpointLocation,
+                                                    Map<String, String> offlineWriteOptions,
+                                                    Map<String, String> onlineWriteOptions)
+      throws FeatureStoreException, StreamingQueryException, TimeoutException {
+
+    checkStreamRateLimit(offlineWriteOptions);
+    String streamQueryName = Strings.isNullOrEmpty(queryName)
+        ? "insert_stream_" + utils.getFgName(featureGroupBase) : queryName;
+    DataStreamWriter<Row> writer = dataset
+        .writeStream()
+        .queryName(streamQueryName)
+        .outputMode(outputMode)
+        .option("checkpointLocation", checkpointLocation == null
+            ? utils.checkpointDirPath(streamQueryName, featureGroupBase.getOnlineTopicName())
+            : checkpointLocation)
+        .foreachBatch((VoidFunction2<Dataset<Row>, Long>) (batch, batchId) -> {
+          if (batch.isEmpty()) {
+            return;
+          }
+          boolean persisted = persistWriteInput(batch, offlineWriteOptions);
+          try {
+            hudiEngine.saveHudiStreamBatch(sparkSession, featureGroupBase, batch, streamQueryName, batchId,
+                offlineWriteOptions);
+            if (onlineWriteOptions != null) {
+              writeOnlineDataframe(featureGroupBase, batch, featureGroupBase.getOnlineTopicName(), onlineWriteOptions);
+            }
+          } finally {
+            if (persisted) {
+              batch.unpersist();
+            }
+          }
+        });
+
+    StreamingQuery query = startStream(writer, offlineWriteOptions);
     if (awaitTermination) {
       query.awaitTermination(timeout);
     }
     return query;
   }
 
+  /**
+   * Start a streaming query with the trigger interval set by the `hsfs.stream.trigger.interval.ms` write option and
+   * log its progress.
+   */
+  private StreamingQuery startStream(DataStreamWriter<Row> writer, Map<String, String> writeOptions)
+      throws TimeoutException {
+    Long triggerIntervalMs = writeOptions != null && writeOptions.containsKey(Constants.STREAM_TRIGGER_INTERVAL_MS)
+        ? Long.parseLong(writeOptions.get(Constants.STREAM_TRIGGER_INTERVAL_MS)) : null;
+    if (triggerIntervalMs != null) {
+      writer = writer.trigger(Trigger.ProcessingTime(triggerIntervalMs));
+    }
+    StreamingQuery query = writer.start();
+    getStreamingProgressListener().watch(query, triggerIntervalMs);
+    return query;
+  }
+
+  private synchronized StreamingProgressListener getStreamingProgressListener() {
+    if (streamingProgressListener == null) {
+      streamingProgressListener = new StreamingProgressListener();
+      sparkSession.streams().addListener(streamingProgressListener);
+    }
+    return streamingProgressListener;
+  }
+
+  /**
+   * The ingestion rate of a stream is limited where its records are read, see `readStream`. A sink can only hold back
+   * records which were already read, so a rate limit passed with the write options is rejected.
+   */
+  private void checkStreamRateLimit(Map<String, String> writeOptions) throws FeatureStoreException {
+    if (writeOptions != null && writeOptions.containsKey(Constants.STREAM_MAX_RECORDS_PER_SECOND)) {
+      throw new FeatureStoreException("The write option `" + Constants.STREAM_MAX_RECORDS_PER_SECOND
+          + "` is not supported, set it as an option of the source stream or limit the records per micro-batch of the"
+          + " source, e.g. with `maxOffsetsPerTrigger` for Kafka.");
+    }
+  }
+
+  /**
+   * With the Kafka ingestion profile enabled, repartition the records by primary key into as many partitions as the
+   * online topic has. All records of a key are then produced by the same task, in order, and every task produces
+   * larger batches to fewer topic partitions.
+   *
+   * @param featureGroupBase
+   * @param dataset
+   * @param writeOptions
+   * @return dataset
+   */
+  private Dataset<Row> partitionByPrimaryKey(FeatureGroupBase featureGroupBase, Dataset<Row> dataset,
+                                             Map<String, String> writeOptions)
+      throws FeatureStoreException, IOException {
+    if (!utils.isKafkaIngestionProfileEnabled(writeOptions)) {
+      return dataset;
+    }
+    return dataset.repartition(utils.getOnlineTopicPartitions(featureGroupBase),
+        featureGroupBase.getPrimaryKeys().stream().map(name -> col(name)).toArray(Column[]::new));
+  }
+
   /**
    * Encodes all complex type features to binary using their avro type as schema.
    *
@@ -441,7 +618,200 @@ public class SparkEngine {
     }
   }
 
-  private void writeSparkDataset(FeatureGroup featureGroup, Dataset<Row> dataset, Map<String, String> writeOptions) {
+  /**
+   * Repartition the input of a backfill by chunk, so that once persisted every chunk is read from a few partitions.
+   *
+   * @param featureGroupBase
+   * @param dataset input of the backfill
+   * @param numChunks number of primary key hash chunks, or null
+   * @return dataset
+   */
+  public Dataset<Row> partitionBackfillInput(FeatureGroupBase featureGroupBase, Dataset<Row> dataset,
+                                             Integer numChunks) {
+    return dataset.repartition(getBackfillChunkColumns(featureGroupBase, numChunks));
+  }
+
+  /**
+   * Split the input of a backfill into chunks, keyed by a name which is stable across runs over the same input.
+   * Without numChunks a partitioned feature group is split by partition, otherwise the input is split into numChunks
+   * ranges of the primary key hash.
+   *
+   * @param featureGroupBase
+   * @param dataset input of the backfill, as returned by partitionBackfillInput
+   * @param numChunks number of primary key hash chunks, or null
+   * @return chunks in the order they should be written
+   */
+  public Map<String, Dataset<Row>> getBackfillChunks(FeatureGroupBase featureGroupBase, Dataset<Row> dataset,
+                                                     Integer numChunks) {
+    Map<String, Dataset<Row>> chunks = new LinkedHashMap<>();
+    List<String> partitionColumns =
+        JavaConverters.seqAsJavaListConverter(utils.getPartitionColumns(featureGroupBase)).asJava();
+    Column[] chunkCols = getBackfillChunkColumns(featureGroupBase, numChunks);
+    if (numChunks == null && !partitionColumns.isEmpty()) {
+      for (Row partition : dataset.select(chunkCols).distinct().orderBy(chunkCols).collectAsList()) {
+        Column filter = lit(true);
+        List<Object> partitionValues = new ArrayList<>();
+        for (int i = 0; i < partitionColumns.size(); i++) {
+          filter = filter.and(col(partitionColumns.get(i)).eqNullSafe(partition.get(i)));
+          partitionValues.add(partition.get(i));
+        }
+        chunks.put(getPartitionChunkName(partitionColumns, partitionValues), dataset.filter(filter));
+      }
+    } else {
+      int chunkCount = numChunks != null ? numChunks : Constants.BACKFILL_DEFAULT_CHUNKS;
+      for (int i = 0; i < chunkCount; i++) {
+        chunks.put(getHashChunkName(i, chunkCount), dataset.filter(chunkCols[0].equalTo(i)));
+      }
+    }
+    return chunks;
+  }
+
+  static String getPartitionChunkName(List<String> partitionColumns, List<Object> partitionValues) {
+    List<String> partitionPath = new ArrayList<>();
+    for (int i = 0; i < partitionColumns.size(); i++) {
+      partitionPath.add(partitionColumns.get(i) + "=" + partitionValues.get(i));
+    }
+    return String.join("/", partitionPath);
+  }
+
+  static String getHashChunkName(int chunk, int chunkCount) {
+    return chunk + "/" + chunkCount;
+  }
+
+  private Column[] getBackfillChunkColumns(FeatureGroupBase featureGroupBase, Integer numChunks) {
+    List<String> partitionColumns =
+        JavaConverters.seqAsJavaListConverter(utils.getPartitionColumns(featureGroupBase)).asJava();
+    if (numChunks == null && !partitionColumns.isEmpty()) {
+      return partitionColumns.stream().map(name -> col(name)).toArray(Column[]::new);
+    }
+    int chunkCount = numChunks != null ? numChunks : Constants.BACKFILL_DEFAULT_CHUNKS;
+    return new Column[] {pmod(hash(featureGroupBase.getPrimaryKeys().stream().map(name -> col(name))
+        .toArray(Column[]::new)), lit(chunkCount))};
+  }
+
+  public Set<String> getCommittedBackfillChunks(FeatureGroupBase featureGroupBase, String backfillId)
+      throws IOException, FeatureStoreException, ParseException {
+    return hudiEngine.getCommittedBackfillChunks(sparkSession, featureGroupBase, backfillId);
+  }
+
+  public void markBackfillChunkCommitted(FeatureGroupBase featureGroupBase, String backfillId, String chunk)
+      throws IOException {
+    hudiEngine.markBackfillChunkCommitted(sparkSession, featureGroupBase, backfillId, chunk);
+  }
+
+  public void writeOfflineDataframe(FeatureGroup featureGroup, Dataset<Row> dataset,
+                                    HudiOperationType operation, Map<String, String> writeOptions, Integer validationId)
+      throws IOException, FeatureStoreException, ParseException {
+
+    if (featureGroup.getTimeTravelFormat() == TimeTravelFormat.HUDI) {
+      hudiEngine.saveHudiFeatureGroup(sparkSession, featureGroup, dataset, operation, writeOptions, validationId);
+    } else {
+      writeSparkDataset(featureGroup, dataset, writeOptions);
+    }
+  }
+
+  /**
+   * Repartition the input of a backfill by chunk, so that once persisted every chunk is read from a few partitions.
+   *
+   * @param featureGroupBase
+   * @param dataset input of the backfill
+   * @param numChunks number of primary key hash chunks, or null
+   * @return dataset
+   */
+  public Dataset<Row> partitionBackfillInput(FeatureGroupBase featureGroupBase, Dataset<Row> dataset,
+                                             Integer numChunks) {
+    return dataset.repartition(getBackfillChunkColumns(featureGroupBase, numChunks));
+  }
+
+  /**
+   * Split the input of a backfill into chunks, keyed by a name which is stable across runs over the same input.
+   * Without numChunks a partitioned feature group is split by partition, otherwise the input is split into numChunks
+   * ranges of the primary key hash.
+   *
+   * @param featureGroupBase
+   * @param dataset input of the backfill, as returned by partitionBackfillInput
+   * @param numChunks number of primary key hash chunks, or null
+   * @return chunks in the order they should be written
+   */
+  public Map<String, Dataset<Row>> getBackfillChunks(FeatureGroupBase featureGroupBase, Dataset<Row> dataset,
+                                                     Integer numChunks) {
+    Map<String, Dataset<Row>> chunks = new LinkedHashMap<>();
+    List<String> partitionColumns =
+        JavaConverters.seqAsJavaListConverter(utils.getPartitionColumns(featureGroupBase)).asJava();
+    Column[] chunkCols = getBackfillChunkColumns(featureGroupBase, numChunks);
+    if (numChunks == null && !partitionColumns.isEmpty()) {
+      for (Row partition : dataset.select(chunkCols).distinct().orderBy(chunkCols).collectAsList()) {
+        Column filter = lit(true);
+        List<Object> partitionValues = new ArrayList<>();
+        for (int i = 0; i < partitionColumns.size(); i++) {
+          filter = filter.and(col(partitionColumns.get(i)).eqNullSafe(partition.get(i)));
+          partitionValues.add(partition.get(i));
+        }
+        chunks.put(getPartitionChunkName(partitionColumns, partitionValues), dataset.filter(filter));
+      }
+    } else {
+      int chunkCount = numChunks != null ? numChunks : Constants.BACKFILL_DEFAULT_CHUNKS;
+      for (int i = 0; i < chunkCount; i++) {
+        chunks.put(getHashChunkName(i, chunkCount), dataset.filter(chunkCols[0].equalTo(i)));
+      }
+    }
+    return chunks;
+  }
+
+  static String getPartitionChunkName(List<String> partitionColumns, List<Object> partitionValues) {
+    List<String> partitionPath = new ArrayList<>();
+    for (int i = 0; i < partitionColumns.size(); i++) {
+      partitionPath.add(partitionColumns.get(i) + "=" + partitionValues.get(i));
+    }
+    return String.join("/", partitionPath);
+  }
+
+  static String getHashChunkName(int chunk, int chunkCount) {
+    return chunk + "/" + chunkCount;
+  }
+
+  private Column[] getBackfillChunkColumns(FeatureGroupBase featureGroupBase, Integer numChunks) {
+    List<String> partitionColumns =
+        JavaConverters.seqAsJavaListConverter(utils.getPartitionColumns(featureGroupBase)).asJava();
+    if (numChunks == null && !partitionColumns.isEmpty()) {
+      return partitionColumns.stream().map(name -> col(name)).toArray(Column[]::new);
+    }
+    int chunkCount = numChunks != null ? numChunks : Constants.BACKFILL_DEFAULT_CHUNKS;
+    return new Column[] {pmod(hash(featureGroupBase.getPrimaryKeys().stream().map(name -> col(name))
+        .toArray(Column[]::new)), lit(chunkCount))};
+  }
+
+  public Set<String> getCommittedBackfillChunks(FeatureGroupBase featureGroupBase, String backfillId)
+      throws IOException, FeatureStoreException, ParseException {
+    return hudiEngine.getCommittedBackfillChunks(sparkSession, featureGroupBase, backfillId);
+  }
+
+  public void markBackfillChunkCommitted(FeatureGroupBase featureGroupBase, String backfillId, String chunk)
+      throws IOException {
+    hudiEngine.markBackfillChunkCommitted(sparkSession, featureGroupBase, backfillId, chunk);
+  }
+
+  /**
+   * Evolve the schema of the offline feature group after features were appended. The Hive table was already altered
+   * by Hopsworks, Hudi feature groups additionally record the new schema with an empty commit.
+   *
+   * @param featureGroup
+   * @param newFeatures
+   */
+  public void writeOfflineAppendedFeatures(FeatureGroup featureGroup, List<Feature> newFeatures)
+      throws IOException, FeatureStoreException, ParseException {
+    if (featureGroup.getTimeTravelFormat() == TimeTravelFormat.HUDI) {
+      hudiEngine.commitAppendedFeatures(sparkSession, featureGroup, newFeatures);
+    }
+  }
+
+  private void writeSparkDataset(FeatureGroup featureGroup, Dataset<Row> dataset, Map<String, String> writeOptions)
+      throws FeatureStoreException {
+    Long targetFileSize = getTargetFileSize(writeOptions);
+    Integer targetFileCount = targetFileSize != null ? getTargetFileCount(dataset, targetFileSize) : null;
+    if (targetFileCount != null) {
+      dataset = repartitionToTargetFileCount(featureGroup, dataset, targetFileCount);
+    }
     dataset
         .write()
         .format(Constants.HIVE_FORMAT)
@@ -558,14 +928,6 @@ public class SparkEngine {
     }
   }
 
-  public Dataset<Row> getEmptyAppendedDataframe(Dataset<Row> dataframe, List<Feature> newFeatures) {
-    Dataset<Row> emptyDataframe = dataframe.limit(0);
-    for (Feature f : newFeatures) {
-      emptyDataframe = emptyDataframe.withColumn(f.getName(), lit(null).cast(f.getType()));
-    }
-    return emptyDataframe;
-  }
-
   public void streamToHudiTable(StreamFeatureGroup streamFeatureGroup, Map<String, String> writeOptions)
       throws Exception {
     writeOptions = utils.getKafkaConfig(streamFeatureGroup, writeOptions);
@@ -589,10 +951,133 @@ public class SparkEngine {
 
   public <S> S sanitizeFeatureNames(S datasetGeneric) {
     Dataset<Row> dataset = (Dataset<Row>) datasetGeneric;
+    if (Arrays.stream(dataset.columns()).allMatch(f -> f.equals(f.toLowerCase()))) {
+      // keep the same dataset so that a persisted input is not wrapped in a new projection
+      return datasetGeneric;
+    }
     return (S) dataset.select(Arrays.asList(dataset.columns()).stream().map(f -> col(f).alias(f.toLowerCase())).toArray(
         Column[]::new));
   }
 
+  /**
+   * Persist the input of a feature group write, so that validation, the offline and online writes and the statistics
+   * are computed from a single evaluation of its lineage. The storage level can be set with the
+   * `hsfs.write.storage.level` write option, `NONE` disables persisting the input.
+   *
+   * @param dataset input of the write
+   * @param writeOptions user provided write options
+   * @return true if the dataset was persisted and needs to be unpersisted once the write completes
+   */
+  public boolean persistWriteInput(Dataset<Row> dataset, Map<String, String> writeOptions) {
+    if (dataset.isStreaming() || !dataset.storageLevel().equals(StorageLevel.NONE())) {
+      return false;
+    }
+    StorageLevel storageLevel = getWriteStorageLevel(writeOptions);
+    if (storageLevel.equals(StorageLevel.NONE())) {
+      return false;
+    }
+    dataset.persist(storageLevel);
+    return true;
+  }
+
+  static StorageLevel getWriteStorageLevel(Map<String, String> writeOptions) {
+    String storageLevelName = writeOptions != null && writeOptions.containsKey(Constants.WRITE_STORAGE_LEVEL)
+        ? writeOptions.get(Constants.WRITE_STORAGE_LEVEL) : Constants.WRITE_STORAGE_LEVEL_DEFAULT;
+    return StorageLevel.fromString(storageLevelName.toUpperCase());
+  }
+
+  /**
+   * Parse the `hsfs.write.target.file.size` write option.
+   *
+   * @param writeOptions user provided write options
+   * @return target size in bytes of the files written, or null if the option is not set
+   * @throws FeatureStoreException if the option is not a positive number of bytes
+   */
+  public static Long getTargetFileSize(Map<String, String> writeOptions) throws FeatureStoreException {
+    if (writeOptions == null || Strings.isNullOrEmpty(writeOptions.get(Constants.WRITE_TARGET_FILE_SIZE))) {
+      return null;
+    }
+    String value = writeOptions.get(Constants.WRITE_TARGET_FILE_SIZE);
+    long targetFileSize;
+    try {
+      targetFileSize = Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw new FeatureStoreException("Write option " + Constants.WRITE_TARGET_FILE_SIZE
+          + " must be a number of bytes, got `" + value + "`", e);
+    }
+    if (targetFileSize <= 0) {
+      throw new FeatureStoreException("Write option " + Constants.WRITE_TARGET_FILE_SIZE
+          + " must be a positive number of bytes, got `" + value + "`");
+    }
+    return targetFileSize;
+  }
+
+  /**
+   * Estimate the number of files a write should produce, given the target file size and the size of the input as
+   * estimated by the optimizer. Returns null if the size of the input can't be estimated, in which case the input is
+   * written with the partitioning it has.
+   *
+   * @param dataset input of the write
+   * @param targetFileSize target size in bytes of the files written, as returned by getTargetFileSize
+   * @return number of files to write or null
+   */
+  public Integer getTargetFileCount(Dataset<Row> dataset, long targetFileSize) {
+    if (dataset.isStreaming()) {
+      return null;
+    }
+    BigInt sizeInBytes = dataset.queryExecution().optimizedPlan().stats().sizeInBytes();
+    // plans without statistics report the default size, which would only result in an arbitrary file count
+    if (!sizeInBytes.isValidLong()
+        || sizeInBytes.toLong() >= sparkSession.sessionState().conf().defaultSizeInBytes()) {
+      return null;
+    }
+    return getTargetFileCount(sizeInBytes.toLong(), targetFileSize);
+  }
+
+  static int getTargetFileCount(long sizeInBytes, long targetFileSize) {
+    return (int) Math.min(Constants.WRITE_MAX_FILE_COUNT,
+        Math.max(1L, (sizeInBytes + targetFileSize - 1) / targetFileSize));
+  }
+
+  /**
+   * Range partition the input of a write by the partition columns of the feature group. The ranges are sampled from
+   * the input, small feature group partitions share a task and large ones are split over several tasks using a hash
+   * of the primary key, so that each task writes files close to the target size.
+   *
+   * @param featureGroupBase
+   * @param dataset
+   * @param targetFileCount number of files to write, as returned by getTargetFileCount
+   * @return dataset
+   */
+  public Dataset<Row> repartitionToTargetFileCount(FeatureGroupBase featureGroupBase, Dataset<Row> dataset,
+                                                   int targetFileCount) {
+    List<Column> partitionColumns = JavaConverters.seqAsJavaListConverter(utils.getPartitionColumns(featureGroupBase))
+        .asJava().stream().map(name -> col(name)).collect(Collectors.toList());
+    if (partitionColumns.isEmpty()) {
+      return dataset.repartition(targetFileCount);
+    }
+    List<String> hashColumns = getHashColumns(featureGroupBase, dataset);
+    if (!hashColumns.isEmpty()) {
+      partitionColumns.add(hash(hashColumns.stream().map(name -> col(name)).toArray(Column[]::new)));
+    }
+    return dataset.repartitionByRange(targetFileCount, partitionColumns.stream().toArray(Column[]::new));
+  }
+
+  /**
+   * Columns to hash to spread the rows of a feature group, the primary key or all columns except the map type
+   * columns, which can't be hashed.
+   */
+  private List<String> getHashColumns(FeatureGroupBase featureGroupBase, Dataset<Row> dataset) {
+    List<String> primaryKeys = featureGroupBase.getPrimaryKeys();
+    if (primaryKeys != null && !primaryKeys.isEmpty()) {
+      return primaryKeys;
+    }
+    return Arrays.stream(dataset.schema().fields())
+        .filter(field -> !(field.dataType() instanceof MapType))
+        .map(StructField::name)
+        .collect(Collectors.toList());
+  }
+
   public String addFile(String filePath) {
     sparkSession.sparkContext().addFile("hdfs://" + filePath);
     return SparkFiles.get((new Path(filePath)).getName());
@@ -605,6 +1090,10 @@ public class SparkEngine {
 
     // set user options last so that they overwrite any default options
     stream = stream.options(storageConnector.sparkOptions()).options(options);
+    Long maxOffsetsPerTrigger = getMaxOffsetsPerTrigger(options);
+    if (maxOffsetsPerTrigger != null) {
+      stream = stream.option("maxOffsetsPerTrigger", maxOffsetsPerTrigger);
+    }
 
     if (storageConnector instanceof StorageConnector.KafkaConnector) {
       return readStreamKafka(stream, messageFormat, schema, includeMetadata);
@@ -612,6 +1101,26 @@ public class SparkEngine {
     throw new FeatureStoreException("Connector does not support reading data into stream.");
   }
 
+  /**
+   * Limit the records read per micro-batch to the `hsfs.stream.max.records.per.second` option times the trigger
+   * interval of the `hsfs.stream.trigger.interval.ms` option, one second if not set. The interval has to be passed to
+   * the writing stream as well. Spark then reads no more than the rate allows in each interval, any backlog stays in
+   * the source until the next batch. A `maxOffsetsPerTrigger` option set by the user is kept.
+   *
+   * @param options read options
+   * @return records per micro-batch, null if the rate is not limited
+   */
+  static Long getMaxOffsetsPerTrigger(Map<String, String> options) {
+    if (options == null || !options.containsKey(Constants.STREAM_MAX_RECORDS_PER_SECOND)
+        || options.containsKey("maxOffsetsPerTrigger")) {
+      return null;
+    }
+    long maxRecordsPerSecond = Long.parseLong(options.get(Constants.STREAM_MAX_RECORDS_PER_SECOND));
+    long triggerIntervalMs = options.containsKey(Constants.STREAM_TRIGGER_INTERVAL_MS)
+        ? Long.parseLong(options.get(Constants.STREAM_TRIGGER_INTERVAL_MS)) : 1000L;
+    return Math.max(1L, maxRecordsPerSecond * triggerIntervalMs / 1000L);
+  }
+
   private Dataset<Row> readStreamKafka(DataStreamReader stream, String messageFormat, String schema,
       boolean includeMetadata) throws SchemaParseException, FeatureStoreException {
     Column[] kafkaMetadataColumns = Arrays.asList(
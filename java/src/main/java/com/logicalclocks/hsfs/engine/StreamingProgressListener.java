@@ -0,0 +1,84 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package com.logicalclocks.hsfs.engine;
+
+import org.apache.spark.sql.streaming.StreamingQuery;
+import org.apache.spark.sql.streaming.StreamingQueryListener;
+import org.apache.spark.sql.streaming.StreamingQueryProgress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Logs the progress of the streaming queries started by feature group stream ingestion. A query whose batches take
+ * longer than its trigger interval is falling behind its source and is reported with a warning. Queries that were
+ * not started by hsfs are ignored.
+ */
+public class StreamingProgressListener extends StreamingQueryListener {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StreamingProgressListener.class);
+
+  private static final String TRIGGER_EXECUTION = "triggerExecution";
+
+  private static final long NO_TRIGGER_INTERVAL = 0L;
+
+  // trigger interval in ms of the watched queries
+  private final Map<UUID, Long> triggerIntervals = new ConcurrentHashMap<>();
+
+  public void watch(StreamingQuery query, Long triggerIntervalMs) {
+    triggerIntervals.put(query.id(), triggerIntervalMs == null ? NO_TRIGGER_INTERVAL : triggerIntervalMs);
+  }
+
+  @Override
+  public void onQueryStarted(QueryStartedEvent event) {
+  }
+
+  @Override
+  public void onQueryProgress(QueryProgressEvent event) {
+    StreamingQueryProgress progress = event.progress();
+    Long triggerIntervalMs = triggerIntervals.get(progress.id());
+    if (triggerIntervalMs == null) {
+      return;
+    }
+    Long batchDurationMs = progress.durationMs().get(TRIGGER_EXECUTION);
+    LOGGER.info("Streaming query `" + progress.name() + "` batch " + progress.batchId() + ": input rows "
+        + progress.numInputRows() + ", input rows/s " + String.format("%.2f", progress.inputRowsPerSecond())
+        + ", processed rows/s " + String.format("%.2f", progress.processedRowsPerSecond()) + ", duration "
+        + batchDurationMs + " ms");
+    if (triggerIntervalMs != NO_TRIGGER_INTERVAL && batchDurationMs != null && batchDurationMs > triggerIntervalMs) {
+      LOGGER.warn("Streaming query `" + progress.name() + "` batch " + progress.batchId() + " took "
+          + batchDurationMs + " ms, longer than the trigger interval of " + triggerIntervalMs + " ms");
+    }
+  }
+
+  @Override
+  public void onQueryTerminated(QueryTerminatedEvent event) {
+    if (triggerIntervals.remove(event.id()) == null) {
+      return;
+    }
+    if (event.exception().isDefined()) {
+      LOGGER.warn("Streaming query with id `" + event.id() + "` terminated with exception: "
+          + event.exception().get());
+    } else {
+      LOGGER.info("Streaming query with id `" + event.id() + "` terminated");
+    }
+  }
+}
@@ -19,48 +19,100 @@ package com.logicalclocks.hsfs.engine.hudi;
 import com.logicalclocks.hsfs.Feature;
 import com.logicalclocks.hsfs.FeatureGroupCommit;
 import com.logicalclocks.hsfs.FeatureStoreException;
+import com.logicalclocks.hsfs.HudiIndexConfig;
+import com.logicalclocks.hsfs.HudiIndexType;
 import com.logicalclocks.hsfs.HudiOperationType;
+import com.logicalclocks.hsfs.HudiRetentionPolicy;
+import com.logicalclocks.hsfs.HudiTableType;
 import com.logicalclocks.hsfs.StreamFeatureGroup;
 import com.logicalclocks.hsfs.engine.FeatureGroupUtils;
 import com.logicalclocks.hsfs.engine.SparkEngine;
 import com.logicalclocks.hsfs.metadata.FeatureGroupApi;
 import com.logicalclocks.hsfs.metadata.FeatureGroupBase;
+import com.logicalclocks.hsfs.metadata.HopsworksClient;
 
 import com.logicalclocks.hsfs.metadata.KafkaApi;
 import com.logicalclocks.hsfs.metadata.PartitionDetails;
+import lombok.SneakyThrows;
+import com.logicalclocks.hsfs.util.Constants;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.avro.Schema;
+import org.apache.hudi.DataSourceUtils;
+import org.apache.hudi.avro.model.HoodieCleanMetadata;
+import org.apache.hudi.client.SparkRDDWriteClient;
+import org.apache.hudi.common.config.HoodieMetadataConfig;
+import org.apache.hudi.common.config.TypedProperties;
+import org.apache.hudi.common.engine.HoodieLocalEngineContext;
+import org.apache.hudi.common.fs.FSUtils;
+import org.apache.hudi.common.model.HoodieBaseFile;
 import org.apache.hudi.common.model.HoodieCommitMetadata;
+import org.apache.hudi.common.model.HoodieFileFormat;
+import org.apache.hudi.common.model.HoodieLogFile;
+import org.apache.hudi.common.model.HoodiePartitionMetadata;
+import org.apache.hudi.common.model.HoodieTableType;
+import org.apache.hudi.common.model.HoodieWriteStat;
 import org.apache.hudi.common.table.HoodieTableMetaClient;
+import org.apache.hudi.common.table.TableSchemaResolver;
 import org.apache.hudi.common.table.timeline.HoodieInstant;
 import org.apache.hudi.common.table.timeline.HoodieTimeline;
-import org.apache.hudi.HoodieDataSourceHelpers;
+import org.apache.hudi.common.table.view.FileSystemViewManager;
+import org.apache.hudi.common.table.view.HoodieTableFileSystemView;
+import org.apache.hudi.hive.HiveSyncConfig;
+import org.apache.hudi.hive.HiveSyncTool;
+import org.apache.hudi.metadata.HoodieTableMetadata;
 
 import org.apache.hudi.common.util.Option;
 import org.apache.parquet.Strings;
+import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.sql.SparkSession;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SaveMode;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.functions;
 
 import org.apache.hadoop.fs.FileSystem;
 import org.json.JSONArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.collection.JavaConverters;
 import scala.collection.Seq;
 
 import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.LongSummaryStatistics;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class HudiEngine {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(HudiEngine.class);
+
   protected static final String HUDI_BASE_PATH = "hoodie.base.path";
   protected static final String HUDI_SPARK_FORMAT = "org.apache.hudi";
   protected static final String HUDI_TABLE_NAME = "hoodie.table.name";
   protected static final String HUDI_TABLE_STORAGE_TYPE = "hoodie.datasource.write.storage.type";
+  protected static final String HUDI_TABLE_TYPE_PROPERTY = "hoodie.table.type";
   protected static final String HUDI_TABLE_OPERATION = "hoodie.datasource.write.operation";
 
   protected static final String HUDI_KEY_GENERATOR_OPT_KEY = "hoodie.datasource.write.keygenerator.class";
@@ -87,19 +139,57 @@ public class HudiEngine {
   protected static final String HIVE_AUTO_CREATE_DATABASE_OPT_KEY = "hoodie.datasource.hive_sync.auto_create_database";
   protected static final String HIVE_AUTO_CREATE_DATABASE_OPT_VAL = "false";
 
-  protected static final String HUDI_COPY_ON_WRITE = "COPY_ON_WRITE";
+  protected static final String HUDI_HIVE_SYNC_SKIP_RO_SUFFIX = "hoodie.datasource.hive_sync.skip_ro_suffix";
+  protected static final String HUDI_COMPACT_INLINE = "hoodie.compact.inline";
+  protected static final String HUDI_COMPACT_INLINE_MAX_DELTA_COMMITS = "hoodie.compact.inline.max.delta.commits";
+  protected static final String HUDI_COMPACT_INLINE_MAX_DELTA_COMMITS_DEFAULT = "5";
   protected static final String HUDI_QUERY_TYPE_OPT_KEY = "hoodie.datasource.query.type";
   protected static final String HUDI_QUERY_TYPE_INCREMENTAL_OPT_VAL = "incremental";
+  protected static final String HUDI_QUERY_TYPE_SNAPSHOT_OPT_VAL = "snapshot";
+  protected static final String HUDI_TIME_TRAVEL_AS_OF_INSTANT = "as.of.instant";
   protected static final String HUDI_BEGIN_INSTANTTIME_OPT_KEY = "hoodie.datasource.read.begin.instanttime";
   protected static final String HUDI_END_INSTANTTIME_OPT_KEY = "hoodie.datasource.read.end.instanttime";
 
   protected static final String HUDI_WRITE_INSERT_DROP_DUPLICATES = "hoodie.datasource.write.insert.drop.duplicates";
 
-  protected static final String PAYLOAD_CLASS_OPT_KEY = "hoodie.datasource.write.payload.class";
-  protected static final String PAYLOAD_CLASS_OPT_VAL = "org.apache.hudi.common.model.EmptyHoodieRecordPayload";
+  protected static final String HUDI_PARQUET_MAX_FILE_SIZE = "hoodie.parquet.max.file.size";
+  protected static final long HUDI_PARQUET_MAX_FILE_SIZE_DEFAULT = 120L * 1024 * 1024;
+  protected static final String HUDI_PARQUET_SMALL_FILE_LIMIT = "hoodie.parquet.small.file.limit";
+  protected static final String HUDI_BULKINSERT_SORT_MODE = "hoodie.bulkinsert.sort.mode";
+  protected static final String HUDI_BULKINSERT_SORT_MODE_PARTITION_SORT = "PARTITION_SORT";
+  protected static final String HUDI_BULKINSERT_PARALLELISM = "hoodie.bulkinsert.shuffle.parallelism";
+  protected static final String HUDI_INSERT_PARALLELISM = "hoodie.insert.shuffle.parallelism";
+
+  protected static final String HUDI_CLUSTERING_SORT_COLUMNS = "hoodie.clustering.plan.strategy.sort.columns";
+  protected static final String HUDI_CLUSTERING_TARGET_FILE_MAX_BYTES =
+      "hoodie.clustering.plan.strategy.target.file.max.bytes";
+  protected static final String HUDI_CLUSTERING_SMALL_FILE_LIMIT = "hoodie.clustering.plan.strategy.small.file.limit";
+  protected static final String HUDI_CLEAN_AUTOMATIC = "hoodie.clean.automatic";
+  protected static final String HUDI_CLEANER_POLICY = "hoodie.cleaner.policy";
+  protected static final String HUDI_CLEANER_POLICY_KEEP_LATEST_COMMITS = "KEEP_LATEST_COMMITS";
+  protected static final String HUDI_CLEANER_POLICY_KEEP_LATEST_FILE_VERSIONS = "KEEP_LATEST_FILE_VERSIONS";
+  protected static final String HUDI_CLEANER_COMMITS_RETAINED = "hoodie.cleaner.commits.retained";
+  protected static final String HUDI_CLEANER_FILE_VERSIONS_RETAINED = "hoodie.cleaner.fileversions.retained";
+  protected static final String HUDI_KEEP_MIN_COMMITS = "hoodie.keep.min.commits";
+  protected static final String HUDI_KEEP_MAX_COMMITS = "hoodie.keep.max.commits";
+  protected static final String HUDI_METADATA_ENABLE = "hoodie.metadata.enable";
+  protected static final String HUDI_INDEX_TYPE = "hoodie.index.type";
+  protected static final String HUDI_BLOOM_INDEX_FPP = "hoodie.index.bloom.fpp";
+  protected static final String HUDI_BLOOM_INDEX_NUM_ENTRIES = "hoodie.index.bloom.num_entries";
+  protected static final String HUDI_BLOOM_INDEX_UPDATE_PARTITION_PATH = "hoodie.bloom.index.update.partition.path";
+  protected static final String HUDI_SIMPLE_INDEX_UPDATE_PARTITION_PATH = "hoodie.simple.index.update.partition.path";
+  protected static final String HUDI_BLOOM_INDEX_KEYS_PER_BUCKET = "hoodie.bloom.index.keys.per.bucket";
+  protected static final int HUDI_KEEP_MIN_COMMITS_DEFAULT = 20;
+  protected static final int HUDI_KEEP_MAX_COMMITS_DEFAULT = 30;
+  private static final String BACKFILL_MARKER_DIR = ".hsfs/backfill";
+  private static final String HIVE_SYNC_MARKER_DIR = ".hsfs/hive_sync";
+  private static final int MAX_DELETE_KEY_FILTER_VALUES = 1000;
+  private static final String TABLE_SETTINGS_FILE = ".hsfs/settings.properties";
+
 
   protected static final String HUDI_KAFKA_TOPIC = "hoodie.deltastreamer.source.kafka.topic";
   protected static final String COMMIT_METADATA_KEYPREFIX_OPT_KEY = "hoodie.datasource.write.commitmeta.key.prefix";
+  protected static final String HSFS_COMMIT_METADATA_KEYPREFIX = "hsfs.";
   protected static final String DELTASTREAMER_CHECKPOINT_KEY = "deltastreamer.checkpoint.key";
   protected static final String INITIAL_CHECKPOINT_STRING = "initialCheckPointString";
   protected static final String FEATURE_GROUP_SCHEMA = "com.logicalclocks.hsfs.FeatureGroup.schema";
@@ -121,9 +211,17 @@ public class HudiEngine {
   protected static final String STREAMING_QUERY = "streamingQuery";
 
   private FeatureGroupUtils utils = new FeatureGroupUtils();
+  // timelines of the tables most recently accessed by this process, shared by all engine instances
+  private static final int TIMELINE_CACHE_SIZE = 100;
+  private static final Map<String, HudiTimelineCache> timelineCaches = Collections.synchronizedMap(
+      new LinkedHashMap<String, HudiTimelineCache>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HudiTimelineCache> eldest) {
+          return size() > TIMELINE_CACHE_SIZE;
+        }
+      });
 
   private FeatureGroupApi featureGroupApi = new FeatureGroupApi();
-  private FeatureGroupCommit fgCommitMetadata = new FeatureGroupCommit();
   private DeltaStreamerConfig deltaStreamerConfig = new DeltaStreamerConfig();
   private KafkaApi kafkaApi = new KafkaApi();
 
@@ -131,8 +229,65 @@ public class HudiEngine {
                                    Dataset<Row> dataset, HudiOperationType operation,
                                    Map<String, String> writeOptions, Integer validationId)
       throws IOException, FeatureStoreException, ParseException {
+    FeatureGroupCommit fgCommit = stageHudiFeatureGroup(sparkSession, featureGroup, dataset, operation, writeOptions,
+        validationId, false);
+    if (fgCommit != null) {
+      featureGroupApi.featureGroupCommit(featureGroup, fgCommit);
+    }
+  }
+
+  /**
+   * Write to the Hudi table of the feature group without registering the commit with Hopsworks. The write is tagged
+   * with a unique id in the commit metadata, its commit is found by the id also if other writers committed since.
+   *
+   * @param sparkSession
+   * @param featureGroup
+   * @param dataset
+   * @param operation
+   * @param writeOptions
+   * @param validationId
+   * @param deferTableServices disable inline compaction and automatic cleaning, so that the commit of the write
+   *                           remains the latest instant of the table and can be rolled back
+   * @return commit to register with Hopsworks, or null if the write didn't commit
+   */
+  public FeatureGroupCommit stageHudiFeatureGroup(SparkSession sparkSession, FeatureGroupBase featureGroup,
+                                                  Dataset<Row> dataset, HudiOperationType operation,
+                                                  Map<String, String> writeOptions, Integer validationId,
+                                                  boolean deferTableServices)
+      throws IOException, FeatureStoreException, ParseException {
 
     Map<String, String> hudiArgs = setupHudiWriteOpts(featureGroup, operation, writeOptions);
+    String writeId = UUID.randomUUID().toString();
+    hudiArgs.put(Constants.WRITE_ID, writeId);
+    if (deferTableServices) {
+      hudiArgs.put(HUDI_COMPACT_INLINE, "false");
+      hudiArgs.put(HUDI_CLEAN_AUTOMATIC, "false");
+    }
+
+    boolean skewHandling = operation == HudiOperationType.UPSERT && writeOptions != null
+        && Boolean.parseBoolean(writeOptions.get(Constants.WRITE_SKEW_HANDLING));
+    if (skewHandling) {
+      setupHudiSkewOpts(hudiArgs, writeOptions);
+    }
+
+    boolean deferHiveSync = writeOptions != null
+        && Constants.HIVE_SYNC_MODE_ON_CHANGE.equals(writeOptions.get(Constants.HIVE_SYNC_MODE));
+    if (deferHiveSync) {
+      // the commit is synced after the write if it changed the schema or the partitions of the table
+      hudiArgs.put(HUDI_HIVE_SYNC_ENABLE, "false");
+      hudiArgs.put(Constants.HIVE_SYNC_DEFERRED, "true");
+    }
+
+    // upserts are spread by the index over the existing file groups, only inserts write new files of the target size
+    Long targetFileSize = SparkEngine.getTargetFileSize(writeOptions);
+    if (targetFileSize != null
+        && (operation == HudiOperationType.BULK_INSERT || operation == HudiOperationType.INSERT)) {
+      Integer targetFileCount = SparkEngine.getInstance().getTargetFileCount(dataset, targetFileSize);
+      if (targetFileCount != null) {
+        dataset = SparkEngine.getInstance().repartitionToTargetFileCount(featureGroup, dataset, targetFileCount);
+        setupHudiFileSizingOpts(hudiArgs, targetFileCount, targetFileSize, writeOptions);
+      }
+    }
 
     dataset.write()
         .format(HUDI_SPARK_FORMAT)
@@ -140,21 +295,359 @@ public class HudiEngine {
         .mode(SaveMode.Append)
         .save(featureGroup.getLocation());
 
-    FeatureGroupCommit fgCommit = getLastCommitMetadata(sparkSession, featureGroup.getLocation());
-    if (fgCommit != null) {
-      fgCommit.setValidationId(validationId);
-      featureGroupApi.featureGroupCommit(featureGroup, fgCommit);
+    HudiTimelineCache timelineCache = getTimelineCache(sparkSession, featureGroup.getLocation());
+    HoodieInstant instant = getWriteInstant(timelineCache, writeId);
+    if (instant == null) {
+      return null;
+    }
+    if (skewHandling) {
+      logFileGroupWriteDistribution(featureGroup, timelineCache.getCommitMetadata(instant));
+    }
+    if (deferHiveSync && isHiveSyncRequired(sparkSession, featureGroup, timelineCache, instant, writeOptions)) {
+      syncHive(sparkSession, featureGroup, hudiArgs, instant);
+    }
+    FeatureGroupCommit fgCommit = getCommitMetadata(timelineCache, instant);
+    fgCommit.setValidationId(validationId);
+    return fgCommit;
+  }
+
+  // latest first, the commit of a write is at most a few concurrent commits behind the end of the timeline
+  private HoodieInstant getWriteInstant(HudiTimelineCache timelineCache, String writeId) throws IOException {
+    for (HoodieInstant instant : timelineCache.reload().getReverseOrderedInstants().collect(Collectors.toList())) {
+      if (writeId.equals(timelineCache.getCommitMetadata(instant).getMetadata(Constants.WRITE_ID))) {
+        return instant;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Roll back a completed commit of the Hudi table of the feature group, which must be the latest commit.
+   *
+   * @param sparkSession
+   * @param featureGroup
+   * @param instantTime instant of the commit
+   */
+  public void rollbackCommit(SparkSession sparkSession, FeatureGroupBase featureGroup, String instantTime)
+      throws IOException, FeatureStoreException {
+    SparkRDDWriteClient<?> writeClient = createWriteClient(sparkSession, featureGroup,
+        setupHudiWriteOpts(featureGroup, HudiOperationType.UPSERT, null));
+    try {
+      if (!writeClient.rollback(instantTime)) {
+        throw new FeatureStoreException("Could not roll back commit " + instantTime + " of feature group `"
+            + featureGroup.getName() + "`, with version `" + featureGroup.getVersion() + "`");
+      }
+    } finally {
+      writeClient.close();
+    }
+  }
+
+  public void rollbackCommit(FeatureGroupBase featureGroup, String instantTime)
+      throws IOException, FeatureStoreException {
+    rollbackCommit(SparkEngine.getInstance().getSparkSession(), featureGroup, instantTime);
+  }
+
+  /**
+   * Schedule and execute the compaction of the log files of a merge-on-read feature group into new base files, and
+   * register the compaction commit with Hopsworks.
+   *
+   * @param sparkSession
+   * @param featureGroup
+   * @param writeOptions additional hudi options
+   * @return instant of the compaction, or null if there was nothing to compact
+   */
+  public String compact(SparkSession sparkSession, FeatureGroupBase featureGroup, Map<String, String> writeOptions)
+      throws IOException, FeatureStoreException {
+    if (getTableType(sparkSession, featureGroup) != HoodieTableType.MERGE_ON_READ) {
+      throw new FeatureStoreException("Compaction is only supported for merge-on-read feature groups");
+    }
+    Map<String, String> hudiArgs = setupHudiWriteOpts(featureGroup, HudiOperationType.UPSERT, writeOptions);
+    hudiArgs.put(HUDI_COMPACT_INLINE, "false");
+
+    SparkRDDWriteClient<?> writeClient = createWriteClient(sparkSession, featureGroup, hudiArgs);
+    try {
+      Option<String> compactionInstant = writeClient.scheduleCompaction(Option.empty());
+      if (!compactionInstant.isPresent()) {
+        LOGGER.info("No file groups to compact in feature group `" + featureGroup.getName() + "`");
+        return null;
+      }
+      LOGGER.info("Compacting feature group `" + featureGroup.getName() + "` at " + compactionInstant.get());
+      writeClient.compact(compactionInstant.get());
+      registerTableServiceCommit(sparkSession, featureGroup, compactionInstant.get());
+      return compactionInstant.get();
+    } finally {
+      writeClient.close();
+    }
+  }
+
+  /**
+   * Schedule and execute the clustering of the small files of a feature group into files of the target size, sorted
+   * by the given columns, and register the replace commit with Hopsworks. Writes updating a file group which is
+   * pending clustering are rejected, clustering should run between writes.
+   *
+   * @param sparkSession
+   * @param featureGroup
+   * @param sortColumns columns to sort the records by, the primary key if null
+   * @param targetFileSize target size of the files in bytes, the hudi default if null
+   * @param writeOptions additional hudi options
+   * @return instant of the clustering, or null if there was nothing to cluster
+   */
+  public String cluster(SparkSession sparkSession, FeatureGroupBase featureGroup, List<String> sortColumns,
+                        Long targetFileSize, Map<String, String> writeOptions)
+      throws IOException, FeatureStoreException {
+    Map<String, String> hudiArgs = setupHudiWriteOpts(featureGroup, HudiOperationType.UPSERT, null);
+    hudiArgs.put(HUDI_CLUSTERING_SORT_COLUMNS, sortColumns != null && !sortColumns.isEmpty()
+        ? String.join(",", sortColumns) : utils.getPrimaryColumns(featureGroup).mkString(","));
+    if (targetFileSize != null) {
+      hudiArgs.put(HUDI_CLUSTERING_TARGET_FILE_MAX_BYTES, String.valueOf(targetFileSize));
+      hudiArgs.put(HUDI_CLUSTERING_SMALL_FILE_LIMIT, String.valueOf(targetFileSize / 2));
+      hudiArgs.put(HUDI_PARQUET_MAX_FILE_SIZE, String.valueOf(targetFileSize));
+    }
+    if (writeOptions != null) {
+      hudiArgs.putAll(writeOptions);
+    }
+
+    SparkRDDWriteClient<?> writeClient = createWriteClient(sparkSession, featureGroup, hudiArgs);
+    try {
+      Option<String> clusteringInstant = writeClient.scheduleClustering(Option.empty());
+      if (!clusteringInstant.isPresent()) {
+        LOGGER.info("No file groups to cluster in feature group `" + featureGroup.getName() + "`");
+        return null;
+      }
+      LOGGER.info("Clustering feature group `" + featureGroup.getName() + "` at " + clusteringInstant.get());
+      writeClient.cluster(clusteringInstant.get(), true);
+      registerTableServiceCommit(sparkSession, featureGroup, clusteringInstant.get());
+      return clusteringInstant.get();
+    } finally {
+      writeClient.close();
+    }
+  }
+
+  /**
+   * Register the commit of a table service with Hopsworks, so that the commit history of the feature group covers
+   * every instant of the Hudi timeline.
+   */
+  private void registerTableServiceCommit(SparkSession sparkSession, FeatureGroupBase featureGroup,
+                                          String instantTime) throws IOException, FeatureStoreException {
+    HudiTimelineCache timelineCache = getTimelineCache(sparkSession, featureGroup.getLocation());
+    Optional<HoodieInstant> instant = timelineCache.reload().getInstants()
+        .filter(committed -> committed.getTimestamp().equals(instantTime))
+        .findFirst();
+    if (!instant.isPresent()) {
+      throw new FeatureStoreException("Commit " + instantTime + " was not found on the timeline of feature group `"
+          + featureGroup.getName() + "`");
+    }
+    try {
+      featureGroupApi.featureGroupCommit(featureGroup, getCommitMetadata(timelineCache, instant.get()));
+    } catch (ParseException e) {
+      throw new FeatureStoreException("Could not parse the time of commit " + instantTime, e);
+    }
+  }
+
+  /**
+   * Clean the file versions which are no longer needed by the retention policy of the feature group.
+   *
+   * @param sparkSession
+   * @param featureGroup
+   * @param writeOptions additional hudi options
+   */
+  public void clean(SparkSession sparkSession, FeatureGroupBase featureGroup, Map<String, String> writeOptions)
+      throws IOException, FeatureStoreException {
+    SparkRDDWriteClient<?> writeClient = createWriteClient(sparkSession, featureGroup,
+        setupHudiWriteOpts(featureGroup, HudiOperationType.UPSERT, writeOptions));
+    try {
+      HoodieCleanMetadata cleanMetadata = writeClient.clean();
+      if (cleanMetadata == null) {
+        LOGGER.info("No files to clean in feature group `" + featureGroup.getName() + "`");
+      } else {
+        LOGGER.info("Cleaned " + cleanMetadata.getTotalFilesDeleted() + " files of feature group `"
+            + featureGroup.getName() + "` at " + cleanMetadata.getStartCleanTime());
+      }
+    } finally {
+      writeClient.close();
     }
   }
 
+  private SparkRDDWriteClient<?> createWriteClient(SparkSession sparkSession, FeatureGroupBase featureGroup,
+                                                   Map<String, String> hudiArgs) throws FeatureStoreException {
+    HoodieTableMetaClient metaClient = HoodieTableMetaClient.builder()
+        .setConf(sparkSession.sparkContext().hadoopConfiguration())
+        .setBasePath(featureGroup.getLocation())
+        .build();
+    return DataSourceUtils.createHoodieClient(JavaSparkContext.fromSparkContext(sparkSession.sparkContext()),
+        getTableSchema(metaClient, featureGroup).toString(), featureGroup.getLocation(),
+        utils.getFgName(featureGroup), hudiArgs);
+  }
+
+  private Schema getTableSchema(HoodieTableMetaClient metaClient, FeatureGroupBase featureGroup)
+      throws FeatureStoreException {
+    try {
+      return new TableSchemaResolver(metaClient).getTableAvroSchemaWithoutMetadataFields();
+    } catch (Exception e) {
+      throw new FeatureStoreException("Could not resolve the schema of the Hudi table of feature group `"
+          + featureGroup.getName() + "`", e);
+    }
+  }
+
+  /**
+   * Upsert a micro-batch of a streaming query into the offline feature group. The query name and batch id are
+   * recorded in the metadata of the Hudi commit. A batch that is replayed after a failure is recognized as committed
+   * and is not written again, its commit is only registered with Hopsworks if that didn't happen before the failure.
+   *
+   * @param sparkSession
+   * @param featureGroup
+   * @param batch micro-batch of the streaming query
+   * @param queryName name of the streaming query
+   * @param batchId id of the micro-batch
+   * @param writeOptions user provided write options
+   */
+  public void saveHudiStreamBatch(SparkSession sparkSession, FeatureGroupBase featureGroup, Dataset<Row> batch,
+                                  String queryName, long batchId, Map<String, String> writeOptions)
+      throws IOException, FeatureStoreException, ParseException {
+    FileSystem hopsfsConf = FileSystem.get(sparkSession.sparkContext().hadoopConfiguration());
+    Path basePath = new Path(featureGroup.getLocation());
+    if (hopsfsConf.exists(new Path(basePath, HoodieTableMetaClient.METAFOLDER_NAME))) {
+      HudiTimelineCache timelineCache = getTimelineCache(sparkSession, featureGroup.getLocation());
+      timelineCache.reload();
+      HoodieInstant committedInstant = getStreamBatchInstant(timelineCache, queryName, batchId);
+      if (committedInstant != null) {
+        LOGGER.info("Batch " + batchId + " of streaming query `" + queryName + "` was already committed at "
+            + committedInstant.getTimestamp());
+        registerMissingCommit(featureGroup, timelineCache, committedInstant);
+        return;
+      }
+    }
+
+    Map<String, String> batchWriteOptions = writeOptions == null ? new HashMap<>() : new HashMap<>(writeOptions);
+    batchWriteOptions.put(Constants.STREAM_QUERY_NAME, queryName);
+    batchWriteOptions.put(Constants.STREAM_BATCH_ID, String.valueOf(batchId));
+    saveHudiFeatureGroup(sparkSession, featureGroup, batch, HudiOperationType.UPSERT, batchWriteOptions, null);
+  }
+
+  /**
+   * Get the chunks of a backfill which are already committed to the Hudi table. Committed chunks are recorded by
+   * marker files under the table path, which outlive the archival of the chunk commits. Chunks committed by a process
+   * which failed before writing the marker are found on the active timeline, they are marked and, if the process
+   * failed before registering the commit with Hopsworks, the commit is registered.
+   *
+   * @param sparkSession
+   * @param featureGroup
+   * @param backfillId
+   * @return names of the committed chunks
+   */
+  public Set<String> getCommittedBackfillChunks(SparkSession sparkSession, FeatureGroupBase featureGroup,
+                                                String backfillId)
+      throws IOException, FeatureStoreException, ParseException {
+    Path markerDir = getBackfillMarkerDir(featureGroup.getLocation(), backfillId);
+    Set<String> committedChunks =
+        readBackfillMarkers(markerDir.getFileSystem(sparkSession.sparkContext().hadoopConfiguration()), markerDir);
+    if (!tableExists(featureGroup)) {
+      return committedChunks;
+    }
+
+    HudiTimelineCache timelineCache = getTimelineCache(sparkSession, featureGroup.getLocation());
+    HoodieInstant lastChunkInstant = null;
+    for (HoodieInstant instant : timelineCache.reload().getInstants().collect(Collectors.toList())) {
+      HoodieCommitMetadata commitMetadata = timelineCache.getCommitMetadata(instant);
+      if (backfillId.equals(commitMetadata.getMetadata(Constants.BACKFILL_ID))) {
+        String chunk = commitMetadata.getMetadata(Constants.BACKFILL_CHUNK);
+        if (committedChunks.add(chunk)) {
+          markBackfillChunkCommitted(sparkSession, featureGroup, backfillId, chunk);
+        }
+        lastChunkInstant = instant;
+      }
+    }
+    if (lastChunkInstant != null) {
+      registerMissingCommit(featureGroup, timelineCache, lastChunkInstant);
+    }
+    return committedChunks;
+  }
+
+  /**
+   * Record that a chunk of a backfill is committed to the Hudi table.
+   *
+   * @param sparkSession
+   * @param featureGroup
+   * @param backfillId
+   * @param chunk name of the chunk
+   */
+  public void markBackfillChunkCommitted(SparkSession sparkSession, FeatureGroupBase featureGroup, String backfillId,
+                                         String chunk) throws IOException {
+    Path markerDir = getBackfillMarkerDir(featureGroup.getLocation(), backfillId);
+    writeBackfillMarker(markerDir.getFileSystem(sparkSession.sparkContext().hadoopConfiguration()), markerDir, chunk);
+  }
+
+  static Path getBackfillMarkerDir(String location, String backfillId) throws IOException {
+    // hidden directories under the table path are skipped by Hudi and Hive readers
+    return new Path(new Path(location, BACKFILL_MARKER_DIR),
+        URLEncoder.encode(backfillId, StandardCharsets.UTF_8.name()));
+  }
+
+  static Set<String> readBackfillMarkers(FileSystem fs, Path markerDir) throws IOException {
+    Set<String> chunks = new HashSet<>();
+    if (fs.exists(markerDir)) {
+      for (FileStatus marker : fs.listStatus(markerDir)) {
+        chunks.add(URLDecoder.decode(marker.getPath().getName(), StandardCharsets.UTF_8.name()));
+      }
+    }
+    return chunks;
+  }
+
+  static void writeBackfillMarker(FileSystem fs, Path markerDir, String chunk) throws IOException {
+    // chunk names contain the partition path, encode them into a single file name
+    fs.create(new Path(markerDir, URLEncoder.encode(chunk, StandardCharsets.UTF_8.name())), true).close();
+  }
+
+  /**
+   * Register a commit found on the Hudi timeline with Hopsworks, unless Hopsworks already knows a later commit.
+   */
+  private void registerMissingCommit(FeatureGroupBase featureGroup, HudiTimelineCache timelineCache,
+                                     HoodieInstant instant)
+      throws IOException, FeatureStoreException, ParseException {
+    Long commitTime = utils.getTimeStampFromDateString(instant.getTimestamp());
+    List<FeatureGroupCommit> lastCommits = featureGroupApi.getCommitDetails(featureGroup, null, 1);
+    if (lastCommits == null || lastCommits.isEmpty() || lastCommits.get(0).getCommitTime() < commitTime) {
+      featureGroupApi.featureGroupCommit(featureGroup, getCommitMetadata(timelineCache, instant));
+    }
+  }
+
+  /**
+   * Find the commit of a batch of a streaming query, or of a later batch of the same query, on the timeline.
+   * Only the most recent commit of the query is inspected, as the batches of a query are committed in order.
+   */
+  private HoodieInstant getStreamBatchInstant(HudiTimelineCache timelineCache, String queryName, long batchId)
+      throws IOException {
+    HoodieTimeline commitTimeline = timelineCache.getCommitTimeline();
+    for (HoodieInstant instant : commitTimeline.getReverseOrderedInstants().collect(Collectors.toList())) {
+      HoodieCommitMetadata commitMetadata = timelineCache.getCommitMetadata(instant);
+      if (queryName.equals(commitMetadata.getMetadata(Constants.STREAM_QUERY_NAME))) {
+        String committedBatchId = commitMetadata.getMetadata(Constants.STREAM_BATCH_ID);
+        return committedBatchId != null && Long.parseLong(committedBatchId) >= batchId ? instant : null;
+      }
+    }
+    return null;
+  }
+
+  private FeatureGroupCommit getCommitMetadata(HudiTimelineCache timelineCache, HoodieInstant instant)
+      throws IOException, FeatureStoreException, ParseException {
+    HoodieCommitMetadata commitMetadata = timelineCache.getCommitMetadata(instant);
+    FeatureGroupCommit featureGroupCommit = new FeatureGroupCommit();
+    featureGroupCommit.setCommitDateString(instant.getTimestamp());
+    featureGroupCommit.setCommitTime(utils.getTimeStampFromDateString(instant.getTimestamp()));
+    featureGroupCommit.setRowsUpdated(commitMetadata.fetchTotalUpdateRecordsWritten());
+    featureGroupCommit.setRowsInserted(commitMetadata.fetchTotalInsertRecordsWritten());
+    featureGroupCommit.setRowsDeleted(commitMetadata.getTotalRecordsDeleted());
+    return featureGroupCommit;
+  }
+
   public <S> FeatureGroupCommit deleteRecord(SparkSession sparkSession, FeatureGroupBase featureGroup,
                                              S genericDeleteDF, Map<String, String> writeOptions)
       throws IOException, FeatureStoreException,
       ParseException {
 
-    Dataset<Row> deleteDF = (Dataset<Row>) genericDeleteDF;
-    Map<String, String> hudiArgs = setupHudiWriteOpts(featureGroup, HudiOperationType.UPSERT, writeOptions);
-    hudiArgs.put(PAYLOAD_CLASS_OPT_KEY, PAYLOAD_CLASS_OPT_VAL);
+    Dataset<Row> deleteDF = getDeleteKeys(sparkSession, featureGroup,
+        utils.sanitizeFeatureNames((Dataset<Row>) genericDeleteDF));
+    Map<String, String> hudiArgs = setupHudiWriteOpts(featureGroup, HudiOperationType.DELETE, writeOptions);
 
     deleteDF.write().format(HUDI_SPARK_FORMAT)
         .options(hudiArgs)
@@ -171,40 +664,243 @@ public class HudiEngine {
     }
   }
 
+  /**
+   * Reduce the records to delete to the columns the Hudi delete operation needs, the record key and the partition
+   * columns. If the records miss partition columns or the event time, which is part of the record key, they are
+   * completed from the records of the feature group with matching primary keys, reading only the key columns. Up to
+   * MAX_DELETE_KEY_FILTER_VALUES keys are also pushed down as a filter on the read, so that only the partitions and
+   * files which can contain the keys are scanned.
+   *
+   * @param sparkSession
+   * @param featureGroup
+   * @param deleteDF records or keys to delete
+   * @return record keys and partitions to delete
+   */
+  private Dataset<Row> getDeleteKeys(SparkSession sparkSession, FeatureGroupBase featureGroup, Dataset<Row> deleteDF)
+      throws FeatureStoreException {
+    List<String> primaryKeys = JavaConverters.seqAsJavaListConverter(utils.getPrimaryColumns(featureGroup)).asJava();
+    List<String> keyColumns = utils.getDeleteKeyColumns(featureGroup);
+
+    List<String> columns = Arrays.asList(deleteDF.columns());
+    if (columns.containsAll(keyColumns)) {
+      return deleteDF.select(keyColumns.stream().map(functions::col).toArray(Column[]::new));
+    }
+    if (!columns.containsAll(primaryKeys)) {
+      throw new FeatureStoreException("The records to delete need to contain the primary key columns " + primaryKeys
+          + " of the feature group.");
+    }
+
+    // join on every key column the records provide, partition columns let Spark skip partitions of the table
+    List<String> joinColumns = keyColumns.stream().filter(columns::contains).collect(Collectors.toList());
+    Dataset<Row> deleteKeys = deleteDF
+        .select(joinColumns.stream().map(functions::col).toArray(Column[]::new))
+        .distinct();
+    Dataset<Row> tableKeys = sparkSession.read()
+        .format(HUDI_SPARK_FORMAT)
+        .option(HUDI_QUERY_TYPE_OPT_KEY, HUDI_QUERY_TYPE_SNAPSHOT_OPT_VAL)
+        .load(featureGroup.getLocation())
+        .select(keyColumns.stream().map(functions::col).toArray(Column[]::new));
+    List<Row> keys = deleteKeys.limit(MAX_DELETE_KEY_FILTER_VALUES + 1).collectAsList();
+    if (keys.size() <= MAX_DELETE_KEY_FILTER_VALUES) {
+      for (Map.Entry<String, Set<Object>> keyValues : getKeyValues(joinColumns, keys).entrySet()) {
+        tableKeys = tableKeys.filter(functions.col(keyValues.getKey()).isin(keyValues.getValue().toArray()));
+      }
+    }
+    return tableKeys.join(deleteKeys, JavaConverters.asScalaBufferConverter(joinColumns).asScala().toSeq(),
+        "left_semi");
+  }
+
+  // values of each key column, columns with null values are not filtered since IN never matches null
+  static Map<String, Set<Object>> getKeyValues(List<String> columns, List<Row> keys) {
+    Map<String, Set<Object>> keyValues = new LinkedHashMap<>();
+    for (int i = 0; i < columns.size(); i++) {
+      Set<Object> values = new HashSet<>();
+      boolean hasNull = false;
+      for (Row key : keys) {
+        if (key.isNullAt(i)) {
+          hasNull = true;
+          break;
+        }
+        values.add(key.get(i));
+      }
+      if (!hasNull) {
+        keyValues.put(columns.get(i), values);
+      }
+    }
+    return keyValues;
+  }
+
   public void registerTemporaryTable(SparkSession sparkSession, FeatureGroupBase featureGroup, String alias,
                                      Long startTimestamp, Long endTimestamp, Map<String, String> readOptions) {
-    Map<String, String> hudiArgs = setupHudiReadOpts(startTimestamp, endTimestamp, readOptions);
-    sparkSession.read()
+    registerTemporaryTable(sparkSession, featureGroup, alias, startTimestamp, endTimestamp, readOptions, null);
+  }
+
+  public void registerTemporaryTable(SparkSession sparkSession, FeatureGroupBase featureGroup, String alias,
+                                     Long startTimestamp, Long endTimestamp, Map<String, String> readOptions,
+                                     String joinHint) {
+    Map<String, String> hudiArgs = setupHudiReadOpts(startTimestamp, endTimestamp, readOptions,
+        getTableType(sparkSession, featureGroup));
+    if (readsMetadataTable(isMetadataTableEnabled(featureGroup), metadataTableExists(sparkSession, featureGroup))) {
+      hudiArgs.putIfAbsent(HUDI_METADATA_ENABLE, "true");
+    }
+    Dataset<Row> dataset = sparkSession.read()
         .format(HUDI_SPARK_FORMAT)
         .options(hudiArgs)
-        .load(featureGroup.getLocation()).createOrReplaceTempView(alias);
+        .load(featureGroup.getLocation());
+    // features appended after the last commit are not in the Hudi table schema yet
+    for (Feature feature : getMissingFeatures(dataset.columns(), featureGroup.getFeatures())) {
+      dataset = dataset.withColumn(feature.getName(), functions.lit(null).cast(feature.getType()));
+    }
+    if (!Strings.isNullOrEmpty(joinHint)) {
+      // the hint is kept in the plan of the view and picked up by the joins referencing the alias
+      dataset = dataset.hint(joinHint);
+    }
+    dataset.createOrReplaceTempView(alias);
+  }
+
+  /**
+   * Features of the feature group which are not columns of the Hudi table. Appending features only updates the
+   * metadata, the table schema is evolved by the next write including them, until then they read as null.
+   *
+   * @param columns columns of the Hudi table
+   * @param features features of the feature group
+   * @return features missing from the columns
+   */
+  static List<Feature> getMissingFeatures(String[] columns, List<Feature> features) {
+    if (features == null) {
+      return Collections.emptyList();
+    }
+    Set<String> columnNames = Arrays.stream(columns).map(String::toLowerCase).collect(Collectors.toSet());
+    return features.stream()
+        .filter(feature -> !columnNames.contains(feature.getName().toLowerCase()))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Size of the latest file slices of every partition of the feature group, up to the given instant. Partitions and
+   * files are listed through the metadata table when it is enabled and kept up to date by the writers.
+   *
+   * @param sparkSession
+   * @param featureGroup
+   * @param maxInstant latest instant to consider, the last commit if null
+   * @return map from the partition path to the size in bytes of its latest file slices
+   * @throws IOException
+   */
+  public Map<String, Long> getPartitionSizes(SparkSession sparkSession, FeatureGroupBase featureGroup,
+                                             String maxInstant) throws IOException {
+    Map<String, Long> partitionSizes = new HashMap<>();
+    if (!tableExists(featureGroup)) {
+      return partitionSizes;
+    }
+    HudiTimelineCache timelineCache = getTimelineCache(sparkSession, featureGroup.getLocation());
+    Option<HoodieInstant> lastInstant = timelineCache.reload().lastInstant();
+    if (!lastInstant.isPresent()) {
+      return partitionSizes;
+    }
+    String maxCommitTime = maxInstant != null ? maxInstant : lastInstant.get().getTimestamp();
+
+    HoodieLocalEngineContext engineContext =
+        new HoodieLocalEngineContext(sparkSession.sparkContext().hadoopConfiguration());
+    HoodieMetadataConfig metadataConfig = HoodieMetadataConfig.newBuilder()
+        .enable(readsMetadataTable(isMetadataTableEnabled(featureGroup),
+            metadataTableExists(sparkSession, featureGroup)))
+        .build();
+    HoodieTableFileSystemView fileSystemView =
+        FileSystemViewManager.createInMemoryFileSystemView(engineContext, timelineCache.newMetaClient(),
+            metadataConfig);
+    try {
+      for (String partition : FSUtils.getAllPartitionPaths(engineContext, metadataConfig,
+          featureGroup.getLocation())) {
+        partitionSizes.put(partition, fileSystemView.getLatestFileSlicesBeforeOrOn(partition, maxCommitTime, false)
+            .mapToLong(fileSlice -> fileSlice.getBaseFile().map(HoodieBaseFile::getFileSize).orElse(0L)
+                + fileSlice.getLogFiles().mapToLong(HoodieLogFile::getFileSize).sum())
+            .sum());
+      }
+    } finally {
+      fileSystemView.close();
+    }
+    return partitionSizes;
+  }
+
+  private HudiTimelineCache getTimelineCache(SparkSession sparkSession, String basePath) {
+    return timelineCaches.computeIfAbsent(basePath,
+        path -> new HudiTimelineCache(sparkSession.sparkContext().hadoopConfiguration(), path));
   }
 
   private FeatureGroupCommit getLastCommitMetadata(SparkSession sparkSession, String basePath)
       throws IOException, FeatureStoreException, ParseException {
-    FileSystem hopsfsConf = FileSystem.get(sparkSession.sparkContext().hadoopConfiguration());
-    HoodieTimeline commitTimeline = HoodieDataSourceHelpers.allCompletedCommitsCompactions(hopsfsConf, basePath);
-    Option<HoodieInstant> lastInstant = commitTimeline.lastInstant();
+    HudiTimelineCache timelineCache = getTimelineCache(sparkSession, basePath);
+    Option<HoodieInstant> lastInstant = timelineCache.reload().lastInstant();
     if (lastInstant.isPresent()) {
-      fgCommitMetadata.setCommitDateString(lastInstant.get().getTimestamp());
-      fgCommitMetadata.setCommitTime(utils.getTimeStampFromDateString(lastInstant.get().getTimestamp()));
-      byte[] commitsToReturn = commitTimeline.getInstantDetails(lastInstant.get()).get();
-      HoodieCommitMetadata commitMetadata = HoodieCommitMetadata.fromBytes(commitsToReturn, HoodieCommitMetadata.class);
-      fgCommitMetadata.setRowsUpdated(commitMetadata.fetchTotalUpdateRecordsWritten());
-      fgCommitMetadata.setRowsInserted(commitMetadata.fetchTotalInsertRecordsWritten());
-      fgCommitMetadata.setRowsDeleted(commitMetadata.getTotalRecordsDeleted());
-      return fgCommitMetadata;
+      return getCommitMetadata(timelineCache, lastInstant.get());
     } else {
       return null;
     }
   }
 
+  /**
+   * Whether the Hudi metadata table is used to list the files and partitions of the feature group, set on the feature
+   * group or for all feature groups on the connection.
+   */
+  @SneakyThrows
+  private boolean isMetadataTableEnabled(FeatureGroupBase featureGroup) {
+    return featureGroup.getHudiMetadataEnabled() != null
+        ? featureGroup.getHudiMetadataEnabled() : HopsworksClient.getInstance().isHudiMetadataEnabled();
+  }
+
+  @SneakyThrows
+  private boolean metadataTableExists(SparkSession sparkSession, FeatureGroupBase featureGroup) {
+    return metadataTableExists(new Path(featureGroup.getLocation())
+        .getFileSystem(sparkSession.sparkContext().hadoopConfiguration()), featureGroup.getLocation());
+  }
+
+  static boolean metadataTableExists(FileSystem fs, String location) throws IOException {
+    return fs.exists(new Path(HoodieTableMetadata.getMetadataTableBasePath(location)));
+  }
+
+  // only list through the metadata table if the writers keep it up to date
+  static boolean readsMetadataTable(boolean metadataTableEnabled, boolean metadataTableExists) {
+    return metadataTableEnabled && metadataTableExists;
+  }
+
+  // once the metadata table exists every writer has to keep it in sync with the timeline, otherwise readers
+  // listing through it would miss the files of the commits
+  static boolean writesMetadataTable(boolean metadataTableEnabled, boolean metadataTableExists) {
+    return metadataTableEnabled || metadataTableExists;
+  }
+
+  /**
+   * The table type of an existing table is read from its properties, new tables are created with the type set on the
+   * feature group, copy-on-write by default.
+   */
+  @SneakyThrows
+  private HoodieTableType getTableType(SparkSession sparkSession, FeatureGroupBase featureGroup) {
+    if (tableExists(featureGroup)) {
+      return getTimelineCache(sparkSession, featureGroup.getLocation()).getTableType();
+    }
+    return featureGroup.getHudiTableType() == HudiTableType.MERGE_ON_READ
+        ? HoodieTableType.MERGE_ON_READ : HoodieTableType.COPY_ON_WRITE;
+  }
+
   private Map<String, String> setupHudiWriteOpts(FeatureGroupBase featureGroup, HudiOperationType operation,
                                                 Map<String, String> writeOptions)
       throws IOException, FeatureStoreException {
     Map<String, String> hudiArgs = new HashMap<String, String>();
 
-    hudiArgs.put(HUDI_TABLE_STORAGE_TYPE, HUDI_COPY_ON_WRITE);
+    HoodieTableType tableType = getTableType(SparkEngine.getInstance().getSparkSession(), featureGroup);
+    hudiArgs.put(HUDI_TABLE_STORAGE_TYPE, tableType.name());
+    if (tableType == HoodieTableType.MERGE_ON_READ) {
+      // compact the log files of a file group once it received a number of delta commits
+      hudiArgs.put(HUDI_COMPACT_INLINE, "true");
+      hudiArgs.put(HUDI_COMPACT_INLINE_MAX_DELTA_COMMITS, HUDI_COMPACT_INLINE_MAX_DELTA_COMMITS_DEFAULT);
+      // register the read optimized table under the feature group table name, the real time table gets a suffix
+      hudiArgs.put(HUDI_HIVE_SYNC_SKIP_RO_SUFFIX, "true");
+    }
+
+    if (writesMetadataTable(isMetadataTableEnabled(featureGroup),
+        metadataTableExists(SparkEngine.getInstance().getSparkSession(), featureGroup))) {
+      hudiArgs.put(HUDI_METADATA_ENABLE, "true");
+    }
 
     hudiArgs.put(HUDI_KEY_GENERATOR_OPT_KEY, HUDI_COMPLEX_KEY_GENERATOR_OPT_VAL);
 
@@ -244,6 +940,13 @@ public class HudiEngine {
 
     hudiArgs.put(HUDI_TABLE_OPERATION, operation.getValue());
 
+    // hsfs write options are recorded in the extra metadata of the commit
+    hudiArgs.put(COMMIT_METADATA_KEYPREFIX_OPT_KEY, HSFS_COMMIT_METADATA_KEYPREFIX);
+
+    Properties tableSettings = getTableSettings(featureGroup);
+    setupHudiIndexOpts(featureGroup, tableSettings, hudiArgs, writeOptions);
+    setupHudiRetentionOpts(featureGroup, tableSettings, hudiArgs);
+
     // Overwrite with user provided options if any
     if (writeOptions != null && !writeOptions.isEmpty()) {
       hudiArgs.putAll(writeOptions);
@@ -251,18 +954,441 @@ public class HudiEngine {
     return hudiArgs;
   }
 
+  /**
+   * Configure the index Hudi uses to tag the records of upserts. The index configuration of the feature group is
+   * stored in the settings of the table, if the feature group doesn't specify one the stored configuration is used,
+   * so that every writer of the table uses the same index.
+   *
+   * <p>Hudi writes a bloom filter into every base file. With an expected key cardinality, the filters are sized for
+   * the share of the keys of one file, the cardinality divided by the number of files of the maximum file size the
+   * table fills, so that the filters keep the false positive probability as the table grows.
+   *
+   * @param featureGroup
+   * @param tableSettings settings of the table
+   * @param hudiArgs hudi write options
+   * @param writeOptions user provided write options
+   */
+  private void setupHudiIndexOpts(FeatureGroupBase featureGroup, Properties tableSettings,
+                                  Map<String, String> hudiArgs, Map<String, String> writeOptions) throws IOException {
+    HudiIndexConfig hudiIndexConfig = featureGroup.getHudiIndexConfig();
+    if (hudiIndexConfig != null) {
+      Map<String, String> indexConfig = new HashMap<>();
+      indexConfig.put(Constants.HUDI_INDEX_TYPE, hudiIndexConfig.getType() != null
+          ? hudiIndexConfig.getType().name() : HudiIndexType.BLOOM.name());
+      if (hudiIndexConfig.getBloomFpp() != null) {
+        indexConfig.put(Constants.HUDI_INDEX_BLOOM_FPP, hudiIndexConfig.getBloomFpp().toString());
+      }
+      if (hudiIndexConfig.getExpectedKeyCardinality() != null) {
+        indexConfig.put(Constants.HUDI_INDEX_EXPECTED_KEY_CARDINALITY,
+            hudiIndexConfig.getExpectedKeyCardinality().toString());
+      }
+      updateTableSettings(featureGroup, tableSettings, Arrays.asList(Constants.HUDI_INDEX_TYPE,
+          Constants.HUDI_INDEX_BLOOM_FPP, Constants.HUDI_INDEX_EXPECTED_KEY_CARDINALITY), indexConfig);
+    }
+    if (tableSettings.getProperty(Constants.HUDI_INDEX_TYPE) == null) {
+      return;
+    }
+
+    HudiIndexType indexType = HudiIndexType.valueOf(tableSettings.getProperty(Constants.HUDI_INDEX_TYPE));
+    hudiArgs.put(HUDI_INDEX_TYPE, indexType.name());
+    switch (indexType) {
+      case GLOBAL_BLOOM:
+        hudiArgs.put(HUDI_BLOOM_INDEX_UPDATE_PARTITION_PATH, "true");
+        // fall through
+      case BLOOM:
+        if (tableSettings.getProperty(Constants.HUDI_INDEX_BLOOM_FPP) != null) {
+          hudiArgs.put(HUDI_BLOOM_INDEX_FPP, tableSettings.getProperty(Constants.HUDI_INDEX_BLOOM_FPP));
+        }
+        if (tableSettings.getProperty(Constants.HUDI_INDEX_EXPECTED_KEY_CARDINALITY) != null) {
+          hudiArgs.put(HUDI_BLOOM_INDEX_NUM_ENTRIES, String.valueOf(getBloomIndexNumEntries(featureGroup,
+              Long.parseLong(tableSettings.getProperty(Constants.HUDI_INDEX_EXPECTED_KEY_CARDINALITY)),
+              getMaxFileSize(writeOptions))));
+        }
+        break;
+      case GLOBAL_SIMPLE:
+        hudiArgs.put(HUDI_SIMPLE_INDEX_UPDATE_PARTITION_PATH, "true");
+        break;
+      default:
+        break;
+    }
+  }
+
+  private long getBloomIndexNumEntries(FeatureGroupBase featureGroup, long expectedKeyCardinality, long maxFileSize)
+      throws IOException {
+    long tableSize = 0;
+    if (tableExists(featureGroup)) {
+      Path basePath = new Path(featureGroup.getLocation());
+      tableSize = basePath.getFileSystem(SparkEngine.getInstance().getSparkSession().sparkContext()
+          .hadoopConfiguration()).getContentSummary(basePath).getLength();
+    }
+    long fileCount = Math.max(1, tableSize / maxFileSize);
+    return Math.max(1, (expectedKeyCardinality + fileCount - 1) / fileCount);
+  }
+
+  private long getMaxFileSize(Map<String, String> writeOptions) {
+    if (writeOptions != null && writeOptions.containsKey(HUDI_PARQUET_MAX_FILE_SIZE)) {
+      return Long.parseLong(writeOptions.get(HUDI_PARQUET_MAX_FILE_SIZE));
+    }
+    if (writeOptions != null && writeOptions.containsKey(Constants.WRITE_TARGET_FILE_SIZE)) {
+      return Long.parseLong(writeOptions.get(Constants.WRITE_TARGET_FILE_SIZE));
+    }
+    return HUDI_PARQUET_MAX_FILE_SIZE_DEFAULT;
+  }
+
+  /**
+   * Configure the cleaning and archival of the table according to the retention policy of the feature group, or the
+   * policy stored in the settings of the table. Hudi 0.10 can't retain commits by time, a retention in hours is
+   * converted into the number of commits made in that time window when the table is written.
+   *
+   * @param featureGroup
+   * @param tableSettings settings of the table
+   * @param hudiArgs hudi write options
+   */
+  private void setupHudiRetentionOpts(FeatureGroupBase featureGroup, Properties tableSettings,
+                                      Map<String, String> hudiArgs) throws IOException {
+    HudiRetentionPolicy hudiRetentionPolicy = featureGroup.getHudiRetentionPolicy();
+    if (hudiRetentionPolicy != null) {
+      updateTableSettings(featureGroup, tableSettings, Arrays.asList(Constants.HUDI_RETENTION_COMMITS,
+          Constants.HUDI_RETENTION_HOURS, Constants.HUDI_RETENTION_FILE_VERSIONS),
+          getRetentionSettings(hudiRetentionPolicy));
+    }
+    String fileVersionsRetained = tableSettings.getProperty(Constants.HUDI_RETENTION_FILE_VERSIONS);
+    String hoursRetained = tableSettings.getProperty(Constants.HUDI_RETENTION_HOURS);
+    String commitsRetainedSetting = tableSettings.getProperty(Constants.HUDI_RETENTION_COMMITS);
+    if (fileVersionsRetained == null && hoursRetained == null && commitsRetainedSetting == null) {
+      return;
+    }
+    hudiArgs.put(HUDI_CLEAN_AUTOMATIC, "true");
+
+    if (fileVersionsRetained != null) {
+      hudiArgs.put(HUDI_CLEANER_POLICY, HUDI_CLEANER_POLICY_KEEP_LATEST_FILE_VERSIONS);
+      hudiArgs.put(HUDI_CLEANER_FILE_VERSIONS_RETAINED, fileVersionsRetained);
+      return;
+    }
+
+    int commitsRetained;
+    if (hoursRetained != null) {
+      List<String> instantTimes = tableExists(featureGroup)
+          ? getTimelineCache(SparkEngine.getInstance().getSparkSession(), featureGroup.getLocation()).reload()
+              .getInstants().map(HoodieInstant::getTimestamp).collect(Collectors.toList())
+          : new ArrayList<>();
+      commitsRetained = getCommitsRetainedByTime(instantTimes, utils.timeStampToHudiFormat(
+          System.currentTimeMillis() - TimeUnit.HOURS.toMillis(Long.parseLong(hoursRetained))));
+    } else {
+      commitsRetained = Math.max(1, Integer.parseInt(commitsRetainedSetting));
+    }
+    hudiArgs.put(HUDI_CLEANER_POLICY, HUDI_CLEANER_POLICY_KEEP_LATEST_COMMITS);
+    hudiArgs.put(HUDI_CLEANER_COMMITS_RETAINED, String.valueOf(commitsRetained));
+    // the timeline has to keep more commits than the cleaner, archival is only delayed when the defaults keep fewer
+    int keepMinCommits = getKeepMinCommits(commitsRetained);
+    hudiArgs.put(HUDI_KEEP_MIN_COMMITS, String.valueOf(keepMinCommits));
+    hudiArgs.put(HUDI_KEEP_MAX_COMMITS, String.valueOf(getKeepMaxCommits(keepMinCommits)));
+  }
+
+  /**
+   * Get the settings of a retention policy, only one of the retentions is enforced. File versions take precedence
+   * over hours and hours over commits.
+   *
+   * @param hudiRetentionPolicy
+   * @return retention setting by key, empty if the policy sets no retention
+   */
+  static Map<String, String> getRetentionSettings(HudiRetentionPolicy hudiRetentionPolicy) {
+    Map<String, String> retentionSettings = new HashMap<>();
+    if (hudiRetentionPolicy.getFileVersionsRetained() != null) {
+      retentionSettings.put(Constants.HUDI_RETENTION_FILE_VERSIONS,
+          hudiRetentionPolicy.getFileVersionsRetained().toString());
+    } else if (hudiRetentionPolicy.getHoursRetained() != null) {
+      retentionSettings.put(Constants.HUDI_RETENTION_HOURS, hudiRetentionPolicy.getHoursRetained().toString());
+    } else if (hudiRetentionPolicy.getCommitsRetained() != null) {
+      retentionSettings.put(Constants.HUDI_RETENTION_COMMITS, hudiRetentionPolicy.getCommitsRetained().toString());
+    }
+    return retentionSettings;
+  }
+
+  /**
+   * Get the number of commits the cleaner retains to keep the commits made since the start of a time window
+   * readable: the commits in the window, the commit being written and the last commit before the window.
+   *
+   * @param instantTimes instants of the completed commits of the table
+   * @param windowStart instant at the start of the window
+   * @return number of commits to retain
+   */
+  static int getCommitsRetainedByTime(List<String> instantTimes, String windowStart) {
+    int commitsInWindow = (int) instantTimes.stream()
+        .filter(instantTime -> HoodieTimeline.compareTimestamps(instantTime, HoodieTimeline.GREATER_THAN_OR_EQUALS,
+            windowStart))
+        .count();
+    return commitsInWindow + 2;
+  }
+
+  static int getKeepMinCommits(int commitsRetained) {
+    return Math.max(HUDI_KEEP_MIN_COMMITS_DEFAULT, commitsRetained + 1);
+  }
+
+  static int getKeepMaxCommits(int keepMinCommits) {
+    return Math.max(HUDI_KEEP_MAX_COMMITS_DEFAULT, keepMinCommits + 10);
+  }
+
+  /**
+   * Get the hsfs settings of the table, which apply to every writer of the table. The settings are stored in a
+   * properties file under the table path.
+   *
+   * @param featureGroup
+   * @return settings of the table, empty if none were stored
+   */
+  private Properties getTableSettings(FeatureGroupBase featureGroup) throws IOException {
+    Properties tableSettings = new Properties();
+    Path settingsPath = new Path(featureGroup.getLocation(), TABLE_SETTINGS_FILE);
+    FileSystem fs = settingsPath.getFileSystem(
+        SparkEngine.getInstance().getSparkSession().sparkContext().hadoopConfiguration());
+    if (fs.exists(settingsPath)) {
+      try (FSDataInputStream in = fs.open(settingsPath)) {
+        tableSettings.load(in);
+      }
+    }
+    return tableSettings;
+  }
+
+  /**
+   * Replace a group of settings of the table, the settings file is only rewritten if the settings changed.
+   *
+   * @param featureGroup
+   * @param tableSettings settings of the table, updated in place
+   * @param keys keys of the group of settings
+   * @param settings new values of the group of settings
+   */
+  private void updateTableSettings(FeatureGroupBase featureGroup, Properties tableSettings, List<String> keys,
+                                   Map<String, String> settings) throws IOException {
+    Properties updatedSettings = new Properties();
+    updatedSettings.putAll(tableSettings);
+    keys.forEach(updatedSettings::remove);
+    updatedSettings.putAll(settings);
+    if (updatedSettings.equals(tableSettings)) {
+      return;
+    }
+    Path settingsPath = new Path(featureGroup.getLocation(), TABLE_SETTINGS_FILE);
+    FileSystem fs = settingsPath.getFileSystem(
+        SparkEngine.getInstance().getSparkSession().sparkContext().hadoopConfiguration());
+    try (FSDataOutputStream out = fs.create(settingsPath, true)) {
+      updatedSettings.store(out, null);
+    }
+    tableSettings.clear();
+    tableSettings.putAll(updatedSettings);
+  }
+
+  private boolean tableExists(FeatureGroupBase featureGroup) throws IOException {
+    FileSystem fs = FileSystem.get(SparkEngine.getInstance().getSparkSession().sparkContext().hadoopConfiguration());
+    return fs.exists(new Path(featureGroup.getLocation(), HoodieTableMetaClient.METAFOLDER_NAME));
+  }
+
+  /**
+   * A commit needs to be synced to Hive if it is the first commit of the table, if it added columns or partitions to
+   * the table, if the number of commits whose sync was deferred reached the `hsfs.hive.sync.max.deferred.commits`
+   * write option, or if no commit on the active timeline was synced. The columns and partitions are taken from the
+   * metadata of the commit. Commits written with a deferred sync are marked in their metadata, the last of them
+   * which was synced after the write is recorded in a marker.
+   *
+   * @param sparkSession
+   * @param featureGroup
+   * @param timelineCache timeline of the table, including the commit
+   * @param instant commit of the write
+   * @param writeOptions user provided write options
+   * @return true if the commit has to be synced to Hive
+   */
+  private boolean isHiveSyncRequired(SparkSession sparkSession, FeatureGroupBase featureGroup,
+                                     HudiTimelineCache timelineCache, HoodieInstant instant,
+                                     Map<String, String> writeOptions) throws IOException {
+    List<HoodieInstant> previousCommits = timelineCache.getCommitTimeline()
+        .findInstantsBefore(instant.getTimestamp()).getReverseOrderedInstants().collect(Collectors.toList());
+    if (previousCommits.isEmpty()) {
+      return true;
+    }
+
+    // new columns
+    HoodieCommitMetadata commitMetadata = timelineCache.getCommitMetadata(instant);
+    if (hasNewColumns(commitMetadata.getMetadata(HoodieCommitMetadata.SCHEMA_KEY),
+        timelineCache.getCommitMetadata(previousCommits.get(0)).getMetadata(HoodieCommitMetadata.SCHEMA_KEY))) {
+      return true;
+    }
+
+    // new partitions
+    FileSystem fs = new Path(featureGroup.getLocation())
+        .getFileSystem(sparkSession.sparkContext().hadoopConfiguration());
+    for (String partition : getPartitionsWithNewFileGroups(commitMetadata)) {
+      if (isNewPartition(fs, new Path(featureGroup.getLocation(), partition), instant.getTimestamp())) {
+        return true;
+      }
+    }
+
+    int maxDeferredCommits = Integer.parseInt(writeOptions.getOrDefault(Constants.HIVE_SYNC_MAX_DEFERRED_COMMITS,
+        String.valueOf(Constants.HIVE_SYNC_MAX_DEFERRED_COMMITS_DEFAULT)));
+    String lastSyncedInstant = readHiveSyncMarker(fs, getHiveSyncMarkerDir(featureGroup.getLocation()));
+    int deferredCommits = 0;
+    for (HoodieInstant previousCommit : previousCommits) {
+      if (previousCommit.getTimestamp().equals(lastSyncedInstant) || !Boolean.parseBoolean(
+          timelineCache.getCommitMetadata(previousCommit).getMetadata(Constants.HIVE_SYNC_DEFERRED))) {
+        return false;
+      }
+      if (++deferredCommits >= maxDeferredCommits) {
+        return true;
+      }
+    }
+    // the last synced commit was archived, or the table was never synced
+    return true;
+  }
+
+  static boolean hasNewColumns(String schema, String previousSchema) {
+    if (Strings.isNullOrEmpty(schema) || Strings.isNullOrEmpty(previousSchema)) {
+      return true;
+    }
+    Set<String> previousColumns = new Schema.Parser().parse(previousSchema).getFields().stream()
+        .map(Schema.Field::name).collect(Collectors.toSet());
+    return !new Schema.Parser().parse(schema).getFields().stream()
+        .map(Schema.Field::name).allMatch(previousColumns::contains);
+  }
+
+  // a partition created by the commit only has new file groups, existing partitions may also get new file groups
+  static Set<String> getPartitionsWithNewFileGroups(HoodieCommitMetadata commitMetadata) {
+    return commitMetadata.getPartitionToWriteStats().entrySet().stream()
+        .filter(partition -> !partition.getKey().isEmpty() && partition.getValue().stream()
+            .allMatch(writeStat -> writeStat.getPrevCommit() == null
+                || HoodieWriteStat.NULL_COMMIT.equals(writeStat.getPrevCommit())))
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toSet());
+  }
+
+  // the partition metadata file records the commit which created the partition
+  static boolean isNewPartition(FileSystem fs, Path partitionPath, String instantTime) {
+    Option<String> createdCommitTime = new HoodiePartitionMetadata(fs, partitionPath).readPartitionCreatedCommitTime();
+    return !createdCommitTime.isPresent()
+        || !HoodieTimeline.compareTimestamps(createdCommitTime.get(), HoodieTimeline.LESSER_THAN, instantTime);
+  }
+
+  /**
+   * Sync the Hudi table of the feature group to Hive, with the Hive sync options of the write, and record the commit
+   * as the last synced one.
+   */
+  private void syncHive(SparkSession sparkSession, FeatureGroupBase featureGroup, Map<String, String> hudiArgs,
+                        HoodieInstant instant) throws IOException {
+    Configuration hadoopConfiguration = sparkSession.sparkContext().hadoopConfiguration();
+    FileSystem fs = new Path(featureGroup.getLocation()).getFileSystem(hadoopConfiguration);
+    TypedProperties properties = new TypedProperties();
+    properties.putAll(hudiArgs);
+    HiveSyncConfig hiveSyncConfig = DataSourceUtils.buildHiveSyncConfig(properties, featureGroup.getLocation(),
+        HoodieFileFormat.PARQUET.name());
+    new HiveSyncTool(hiveSyncConfig, new HiveConf(hadoopConfiguration, HiveConf.class), fs).syncHoodieTable();
+    writeHiveSyncMarker(fs, getHiveSyncMarkerDir(featureGroup.getLocation()), instant.getTimestamp());
+  }
+
+  static Path getHiveSyncMarkerDir(String location) {
+    return new Path(location, HIVE_SYNC_MARKER_DIR);
+  }
+
+  static String readHiveSyncMarker(FileSystem fs, Path markerDir) throws IOException {
+    if (!fs.exists(markerDir)) {
+      return null;
+    }
+    return Arrays.stream(fs.listStatus(markerDir))
+        .map(marker -> marker.getPath().getName())
+        .max(String::compareTo)
+        .orElse(null);
+  }
+
+  // only the marker of the last synced commit is kept
+  static void writeHiveSyncMarker(FileSystem fs, Path markerDir, String instantTime) throws IOException {
+    fs.create(new Path(markerDir, instantTime), true).close();
+    for (FileStatus marker : fs.listStatus(markerDir)) {
+      if (marker.getPath().getName().compareTo(instantTime) < 0) {
+        fs.delete(marker.getPath(), false);
+      }
+    }
+  }
+
+  /**
+   * Check the keys of upserts against the bloom index in smaller buckets, so that the checks against file groups
+   * receiving many records are split over more tasks. Other index types don't check keys in buckets and are left
+   * unchanged, as are bucket sizes provided by the user.
+   */
+  private void setupHudiSkewOpts(Map<String, String> hudiArgs, Map<String, String> writeOptions) {
+    if (!isBloomIndex(hudiArgs.get(HUDI_INDEX_TYPE)) || writeOptions.containsKey(HUDI_BLOOM_INDEX_KEYS_PER_BUCKET)) {
+      return;
+    }
+    hudiArgs.put(HUDI_BLOOM_INDEX_KEYS_PER_BUCKET, writeOptions.getOrDefault(Constants.WRITE_SKEW_KEYS_PER_BUCKET,
+        String.valueOf(Constants.WRITE_SKEW_KEYS_PER_BUCKET_DEFAULT)));
+  }
+
+  // tables without an index type use the Hudi default, the bloom index
+  static boolean isBloomIndex(String indexType) {
+    return indexType == null || HudiIndexType.BLOOM.name().equals(indexType)
+        || HudiIndexType.GLOBAL_BLOOM.name().equals(indexType);
+  }
+
+  /**
+   * Log how the records of a commit were distributed over the file groups it wrote.
+   */
+  private void logFileGroupWriteDistribution(FeatureGroupBase featureGroup, HoodieCommitMetadata commitMetadata) {
+    LongSummaryStatistics writes = commitMetadata.getPartitionToWriteStats().values().stream()
+        .flatMap(List::stream)
+        .mapToLong(HoodieWriteStat::getNumWrites)
+        .summaryStatistics();
+    if (writes.getCount() == 0) {
+      return;
+    }
+    LOGGER.info("File group write distribution of upsert into " + utils.getFgName(featureGroup) + ": file groups "
+        + writes.getCount() + ", max records " + writes.getMax() + ", mean records "
+        + String.format("%.2f", writes.getAverage()));
+  }
+
+  /**
+   * Size the files written by Hudi to the target file size. Bulk inserts keep the partitioning of the input, inserts
+   * and upserts are shuffled by Hudi into as many partitions as files to write and small files are expanded up to
+   * the target size. Options provided by the user are not overwritten.
+   */
+  private void setupHudiFileSizingOpts(Map<String, String> hudiArgs, int targetFileCount, long targetFileSize,
+                                       Map<String, String> writeOptions) {
+    Map<String, String> fileSizingArgs = new HashMap<>();
+    fileSizingArgs.put(HUDI_PARQUET_MAX_FILE_SIZE, String.valueOf(targetFileSize));
+    fileSizingArgs.put(HUDI_PARQUET_SMALL_FILE_LIMIT, String.valueOf(targetFileSize * 5 / 6));
+    fileSizingArgs.put(HUDI_BULKINSERT_SORT_MODE, HUDI_BULKINSERT_SORT_MODE_PARTITION_SORT);
+    fileSizingArgs.put(HUDI_BULKINSERT_PARALLELISM, String.valueOf(targetFileCount));
+    fileSizingArgs.put(HUDI_INSERT_PARALLELISM, String.valueOf(targetFileCount));
+    for (Map.Entry<String, String> arg : fileSizingArgs.entrySet()) {
+      if (!writeOptions.containsKey(arg.getKey())) {
+        hudiArgs.put(arg.getKey(), arg.getValue());
+      }
+    }
+  }
+
+  /**
+   * Reads are incremental queries between the start and end commit. Merge-on-read tables without a start commit are
+   * read with a snapshot query as of the end commit instead, which merges the log files of the latest file slices
+   * only. The query type can be set with the `hoodie.datasource.query.type` read option, read-optimized queries read
+   * the compacted base files of merge-on-read tables and don't support time travel.
+   */
   private Map<String, String> setupHudiReadOpts(Long startTimestamp, Long endTimestamp,
-                                                Map<String, String> readOptions) {
+                                                Map<String, String> readOptions, HoodieTableType tableType) {
     Map<String, String> hudiArgs = new HashMap<String, String>();
 
-    if (startTimestamp != null) {
-      hudiArgs.put(HUDI_BEGIN_INSTANTTIME_OPT_KEY, utils.timeStampToHudiFormat(startTimestamp));
+    String queryType;
+    if (readOptions != null && readOptions.containsKey(HUDI_QUERY_TYPE_OPT_KEY)) {
+      queryType = readOptions.get(HUDI_QUERY_TYPE_OPT_KEY);
+    } else if (startTimestamp == null && tableType == HoodieTableType.MERGE_ON_READ) {
+      queryType = HUDI_QUERY_TYPE_SNAPSHOT_OPT_VAL;
     } else {
-      hudiArgs.put(HUDI_BEGIN_INSTANTTIME_OPT_KEY, utils.timeStampToHudiFormat(0L));
+      queryType = HUDI_QUERY_TYPE_INCREMENTAL_OPT_VAL;
     }
 
-    hudiArgs.put(HUDI_END_INSTANTTIME_OPT_KEY, utils.timeStampToHudiFormat(endTimestamp));
-    hudiArgs.put(HUDI_QUERY_TYPE_OPT_KEY, HUDI_QUERY_TYPE_INCREMENTAL_OPT_VAL);
+    if (queryType.equals(HUDI_QUERY_TYPE_INCREMENTAL_OPT_VAL)) {
+      if (startTimestamp != null) {
+        hudiArgs.put(HUDI_BEGIN_INSTANTTIME_OPT_KEY, utils.timeStampToHudiFormat(startTimestamp));
+      } else {
+        hudiArgs.put(HUDI_BEGIN_INSTANTTIME_OPT_KEY, utils.timeStampToHudiFormat(0L));
+      }
+      hudiArgs.put(HUDI_END_INSTANTTIME_OPT_KEY, utils.timeStampToHudiFormat(endTimestamp));
+    } else if (queryType.equals(HUDI_QUERY_TYPE_SNAPSHOT_OPT_VAL) && endTimestamp != null) {
+      hudiArgs.put(HUDI_TIME_TRAVEL_AS_OF_INSTANT, utils.timeStampToHudiFormat(endTimestamp));
+    }
+    hudiArgs.put(HUDI_QUERY_TYPE_OPT_KEY, queryType);
 
     // Overwrite with user provided options if any
     if (readOptions != null && !readOptions.isEmpty()) {
@@ -277,6 +1403,7 @@ public class HudiEngine {
     Properties properties = new Properties();
     properties.putAll(setupHudiWriteOpts((FeatureGroupBase) streamFeatureGroup,
         HudiOperationType.BULK_INSERT, null));
+    properties.put(HUDI_TABLE_TYPE_PROPERTY, properties.get(HUDI_TABLE_STORAGE_TYPE));
     HoodieTableMetaClient.initTableAndGetMetaClient(configuration, streamFeatureGroup.getLocation(), properties);
   }
 
@@ -0,0 +1,171 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package com.logicalclocks.hsfs.engine.hudi;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hudi.common.model.HoodieCommitMetadata;
+import org.apache.hudi.common.model.HoodieTableType;
+import org.apache.hudi.common.table.HoodieTableMetaClient;
+import org.apache.hudi.common.table.timeline.HoodieActiveTimeline;
+import org.apache.hudi.common.table.timeline.HoodieDefaultTimeline;
+import org.apache.hudi.common.table.timeline.HoodieInstant;
+import org.apache.hudi.common.table.timeline.HoodieTimeline;
+import org.apache.hudi.common.util.Option;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Completed commits of a Hudi table. The timeline is loaded once and then only extended by the commits completed
+ * since the last reload, and the metadata of completed commits, which never changes, is parsed once. The meta client
+ * of the table is not shared, its active timeline is reloaded by the cache.
+ */
+public class HudiTimelineCache {
+
+  private static final Set<String> COMMIT_ACTIONS = new HashSet<>(Arrays.asList(HoodieTimeline.COMMIT_ACTION,
+      HoodieTimeline.DELTA_COMMIT_ACTION, HoodieTimeline.REPLACE_COMMIT_ACTION));
+
+  private final Configuration configuration;
+  private final String basePath;
+  private final HoodieTableMetaClient metaClient;
+  private final Map<String, HoodieCommitMetadata> commitMetadata = new ConcurrentHashMap<>();
+  // instant times of commits and compactions which were requested or inflight at the last reload
+  private final Set<String> pendingInstants = new HashSet<>();
+  private HoodieTimeline commitTimeline;
+
+  public HudiTimelineCache(Configuration configuration, String basePath) {
+    this.configuration = configuration;
+    this.basePath = basePath;
+    this.metaClient = newMetaClient();
+  }
+
+  /**
+   * Load the instants committed since the last reload. Only the file names of the timeline are listed, the commits
+   * completed since then are added to the cached timeline, including commits started before the last reload, such
+   * as compactions. The timeline is loaded from scratch if its first or last commit is gone, after the timeline was
+   * archived, rolled back or restored.
+   *
+   * @return timeline of completed commits, delta commits and replace commits
+   */
+  public synchronized HoodieTimeline reload() throws IOException {
+    FileSystem fs = metaClient.getFs();
+    if (commitTimeline == null || !exists(fs, commitTimeline.firstInstant())
+        || !exists(fs, commitTimeline.lastInstant())) {
+      return load();
+    }
+    List<HoodieInstant> instants = Arrays.stream(fs.listStatus(new Path(metaClient.getMetaPath())))
+        .filter(status -> !status.isDirectory() && HoodieActiveTimeline.VALID_EXTENSIONS_IN_ACTIVE_TIMELINE
+            .contains(HoodieInstant.getTimelineFileExtension(status.getPath().getName())))
+        .map(HoodieInstant::new)
+        .collect(Collectors.toList());
+    Option<HoodieInstant> lastInstant = commitTimeline.lastInstant();
+    List<HoodieInstant> newCommits = getNewCommits(instants,
+        lastInstant.isPresent() ? lastInstant.get().getTimestamp() : null, pendingInstants);
+    if (!newCommits.isEmpty()) {
+      HoodieActiveTimeline activeTimeline = metaClient.getActiveTimeline();
+      commitTimeline = new HoodieDefaultTimeline(Stream.concat(commitTimeline.getInstants(), newCommits.stream())
+          .sorted(HoodieInstant.COMPARATOR), activeTimeline::getInstantDetails);
+    }
+    return commitTimeline;
+  }
+
+  private HoodieTimeline load() {
+    HoodieActiveTimeline activeTimeline = metaClient.reloadActiveTimeline();
+    commitTimeline = activeTimeline.getTimelineOfActions(COMMIT_ACTIONS).filterCompletedInstants();
+    pendingInstants.clear();
+    activeTimeline.filterInflightsAndRequested().getInstants()
+        .filter(HudiTimelineCache::isCommitOrCompaction)
+        .forEach(instant -> pendingInstants.add(instant.getTimestamp()));
+    // drop the metadata of archived and rolled back instants
+    Set<String> instants = commitTimeline.getInstants().map(HoodieInstant::getFileName).collect(Collectors.toSet());
+    commitMetadata.keySet().retainAll(instants);
+    return commitTimeline;
+  }
+
+  private boolean exists(FileSystem fs, Option<HoodieInstant> instant) throws IOException {
+    return !instant.isPresent() || fs.exists(new Path(metaClient.getMetaPath(), instant.get().getFileName()));
+  }
+
+  /**
+   * Commits of the timeline completed since the last reload: commits after the last cached commit and commits which
+   * were pending at the last reload. The pending instants are updated with the instants now requested or inflight.
+   *
+   * @param instants instants of the timeline
+   * @param lastTimestamp time of the last cached commit, null if there is none
+   * @param pendingInstants times of the pending instants at the last reload, updated in place
+   * @return completed commits not cached yet
+   */
+  static List<HoodieInstant> getNewCommits(List<HoodieInstant> instants, String lastTimestamp,
+                                           Set<String> pendingInstants) {
+    List<HoodieInstant> newCommits = instants.stream()
+        .filter(instant -> instant.isCompleted() && COMMIT_ACTIONS.contains(instant.getAction()))
+        .filter(instant -> isAfter(instant, lastTimestamp) || pendingInstants.contains(instant.getTimestamp()))
+        .collect(Collectors.toList());
+    instants.stream()
+        .filter(instant -> !instant.isCompleted() && isCommitOrCompaction(instant) && isAfter(instant, lastTimestamp))
+        .forEach(instant -> pendingInstants.add(instant.getTimestamp()));
+    newCommits.forEach(instant -> pendingInstants.remove(instant.getTimestamp()));
+    return newCommits;
+  }
+
+  private static boolean isAfter(HoodieInstant instant, String timestamp) {
+    return timestamp == null || HoodieTimeline.compareTimestamps(instant.getTimestamp(), HoodieTimeline.GREATER_THAN,
+        timestamp);
+  }
+
+  private static boolean isCommitOrCompaction(HoodieInstant instant) {
+    return COMMIT_ACTIONS.contains(instant.getAction()) || HoodieTimeline.COMPACTION_ACTION.equals(instant.getAction());
+  }
+
+  /**
+   * New meta client of the table, for callers which load the active timeline themselves, like file system views.
+   * The meta client of the cache is not handed out, since its timeline is reloaded concurrently.
+   */
+  public HoodieTableMetaClient newMetaClient() {
+    return HoodieTableMetaClient.builder()
+        .setConf(configuration)
+        .setBasePath(basePath)
+        .build();
+  }
+
+  public HoodieTableType getTableType() {
+    return metaClient.getTableType();
+  }
+
+  public synchronized HoodieTimeline getCommitTimeline() throws IOException {
+    return commitTimeline != null ? commitTimeline : reload();
+  }
+
+  public HoodieCommitMetadata getCommitMetadata(HoodieInstant instant) throws IOException {
+    HoodieCommitMetadata metadata = commitMetadata.get(instant.getFileName());
+    if (metadata == null) {
+      metadata = HoodieCommitMetadata.fromBytes(getCommitTimeline().getInstantDetails(instant).get(),
+          HoodieCommitMetadata.class);
+      commitMetadata.put(instant.getFileName(), metadata);
+    }
+    return metadata;
+  }
+}
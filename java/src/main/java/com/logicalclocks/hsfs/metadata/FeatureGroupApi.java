@@ -264,6 +264,12 @@ public class FeatureGroupApi {
 
   public List<FeatureGroupCommit> getCommitDetails(FeatureGroupBase featureGroupBase, Long wallclockTimestamp,
                                                    Integer limit) throws IOException, FeatureStoreException {
+    return getCommitDetails(featureGroupBase, wallclockTimestamp, 0, limit);
+  }
+
+  public List<FeatureGroupCommit> getCommitDetails(FeatureGroupBase featureGroupBase, Long wallclockTimestamp,
+                                                   Integer offset, Integer limit)
+      throws IOException, FeatureStoreException {
     HopsworksClient hopsworksClient = HopsworksClient.getInstance();
     String pathTemplate = PROJECT_PATH
         + FeatureStoreApi.FEATURE_STORE_PATH
@@ -274,7 +280,7 @@ public class FeatureGroupApi {
         .set("fsId", featureGroupBase.getFeatureStore().getId())
         .set("fgId", featureGroupBase.getId())
         .set("sort_by", "committed_on:desc")
-        .set("offset", 0)
+        .set("offset", offset)
         .set("limit", limit);
 
     if (wallclockTimestamp != null) {
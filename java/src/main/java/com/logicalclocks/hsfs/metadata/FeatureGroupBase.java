@@ -21,6 +21,9 @@ import com.logicalclocks.hsfs.EntityEndpointType;
 import com.logicalclocks.hsfs.Feature;
 import com.logicalclocks.hsfs.FeatureStore;
 import com.logicalclocks.hsfs.FeatureStoreException;
+import com.logicalclocks.hsfs.HudiIndexConfig;
+import com.logicalclocks.hsfs.HudiRetentionPolicy;
+import com.logicalclocks.hsfs.HudiTableType;
 import com.logicalclocks.hsfs.StatisticsConfig;
 import com.logicalclocks.hsfs.TimeTravelFormat;
 import com.logicalclocks.hsfs.constructor.Filter;
@@ -107,6 +110,30 @@ public class FeatureGroupBase {
   @JsonIgnore
   protected List<Expectation> expectations;
 
+  // Hudi table type used when the offline table is created, the type of an existing table is read from the table
+  @JsonIgnore
+  @Getter
+  @Setter
+  protected HudiTableType hudiTableType;
+
+  // Hudi index used by upserts, the last index configuration is stored in the settings of the table
+  @JsonIgnore
+  @Getter
+  @Setter
+  protected HudiIndexConfig hudiIndexConfig;
+
+  // use the Hudi metadata table for file and partition listings, if null the connection setting applies
+  @JsonIgnore
+  @Getter
+  @Setter
+  protected Boolean hudiMetadataEnabled;
+
+  // retention of the Hudi table enforced on every write, the last policy is stored in the settings of the table
+  @JsonIgnore
+  @Getter
+  @Setter
+  protected HudiRetentionPolicy hudiRetentionPolicy;
+
   private FeatureGroupBaseEngine featureGroupBaseEngine = new FeatureGroupBaseEngine();
   protected StatisticsEngine statisticsEngine = new StatisticsEngine(EntityEndpointType.FEATURE_GROUP);
   protected final ExpectationsApi expectationsApi = new ExpectationsApi(EntityEndpointType.FEATURE_GROUP);
@@ -354,6 +381,35 @@ public class FeatureGroupBase {
     return this.selectAll().filter(filter);
   }
 
+  /**
+   * Delete the records of the feature group matching a filter. Only the columns identifying the matching records are
+   * read and the records are removed with the Hudi delete operation. Only valid for time travel enabled feature
+   * groups.
+   *
+   * @param filter filter on the features of the feature group
+   * @throws FeatureStoreException
+   * @throws IOException
+   */
+  public void commitDeleteRecord(Filter filter) throws FeatureStoreException, IOException, ParseException {
+    commitDeleteRecord(filter, null);
+  }
+
+  public void commitDeleteRecord(Filter filter, Map<String, String> writeOptions)
+      throws FeatureStoreException, IOException, ParseException {
+    featureGroupBaseEngine.commitDelete(this, featureGroupBaseEngine.selectDeleteColumns(this).filter(filter),
+        writeOptions);
+  }
+
+  public void commitDeleteRecord(FilterLogic filter) throws FeatureStoreException, IOException, ParseException {
+    commitDeleteRecord(filter, null);
+  }
+
+  public void commitDeleteRecord(FilterLogic filter, Map<String, String> writeOptions)
+      throws FeatureStoreException, IOException, ParseException {
+    featureGroupBaseEngine.commitDelete(this, featureGroupBaseEngine.selectDeleteColumns(this).filter(filter),
+        writeOptions);
+  }
+
   /**
    * Retrieve a feature of the feature group by name.
    *
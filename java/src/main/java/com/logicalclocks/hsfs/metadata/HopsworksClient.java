@@ -52,6 +52,10 @@ public class HopsworksClient {
   private Project project;
   @Getter
   private String host;
+  // use the Hudi metadata table for file listings of feature groups which don't configure it
+  @Getter
+  @Setter
+  private boolean hudiMetadataEnabled;
 
   public static HopsworksClient getInstance() throws FeatureStoreException {
     if (hopsworksClientInstance == null) {
@@ -76,6 +76,68 @@ public class Constants {
   public static final String KAFKA_SSL_KEY_PASSWORD = "kafka.ssl.key.password";
   public static final String KAFKA_SSL_ENDPOINT_IDENTIFICATION_ALGORITHM =
       "kafka.ssl.endpoint.identification.algorithm";
+  public static final String KAFKA_LINGER_MS = "kafka.linger.ms";
+  public static final String KAFKA_BATCH_SIZE = "kafka.batch.size";
+  public static final String KAFKA_COMPRESSION_TYPE = "kafka.compression.type";
+  public static final String KAFKA_ENABLE_IDEMPOTENCE = "kafka.enable.idempotence";
+  public static final String KAFKA_ACKS = "kafka.acks";
+  public static final String KAFKA_MAX_IN_FLIGHT_REQUESTS = "kafka.max.in.flight.requests.per.connection";
+
+  // set to true to tune the Kafka producer for online feature ingestion and partition the records by primary key
+  public static final String KAFKA_INGESTION_PROFILE = "hsfs.kafka.ingestion.profile";
+
+  // Query join planning, read from the Spark session configuration
+  public static final String JOIN_BROADCAST_ROW_THRESHOLD = "spark.hsfs.join.broadcastRowThreshold";
+  public static final long JOIN_BROADCAST_ROW_THRESHOLD_DEFAULT = 1000000L;
+  public static final String JOIN_SKEW_RATIO_THRESHOLD = "spark.hsfs.join.skewRatioThreshold";
+  public static final double JOIN_SKEW_RATIO_THRESHOLD_DEFAULT = 0.2;
+
+  public static final String QUERY_RESULT_CACHE_DIR = "hsfs_query_cache";
+  // cached query results older than this are deleted when a new result is cached
+  public static final String QUERY_RESULT_CACHE_TTL_HOURS = "spark.hsfs.queryCache.ttlHours";
+  public static final long QUERY_RESULT_CACHE_TTL_HOURS_DEFAULT = 168L;
+
+  // Feature group write options
+  public static final String WRITE_STORAGE_LEVEL = "hsfs.write.storage.level";
+  public static final String WRITE_STORAGE_LEVEL_DEFAULT = "MEMORY_AND_DISK";
+  // target size in bytes of the files written to the offline feature group by inserts
+  public static final String WRITE_TARGET_FILE_SIZE = "hsfs.write.target.file.size";
+  public static final int WRITE_MAX_FILE_COUNT = 10000;
+  // set to true to check the keys of upserts against the bloom index in smaller buckets, spread over more tasks
+  public static final String WRITE_SKEW_HANDLING = "hsfs.write.skew.handling";
+  public static final String WRITE_SKEW_KEYS_PER_BUCKET = "hsfs.write.skew.keys.per.bucket";
+  public static final int WRITE_SKEW_KEYS_PER_BUCKET_DEFAULT = 1000000;
+  // unique id of a write, recorded in the commit metadata to find the commit of the write on the timeline
+  public static final String WRITE_ID = "hsfs.write.id";
+
+  // Streaming ingestion, recorded in the metadata of the Hudi commit of each micro-batch
+  public static final String STREAM_QUERY_NAME = "hsfs.stream.query.name";
+  public static final String STREAM_BATCH_ID = "hsfs.stream.batch.id";
+  public static final String STREAM_TRIGGER_INTERVAL_MS = "hsfs.stream.trigger.interval.ms";
+  // option of the source stream, limits the records read per micro-batch to the rate times the trigger interval
+  public static final String STREAM_MAX_RECORDS_PER_SECOND = "hsfs.stream.max.records.per.second";
+
+  // Backfill, recorded in the metadata of the Hudi commit of each chunk
+  public static final String BACKFILL_ID = "hsfs.backfill.id";
+  public static final String BACKFILL_CHUNK = "hsfs.backfill.chunk";
+  public static final int BACKFILL_DEFAULT_CHUNKS = 16;
+
+  // Hive sync of Hudi commits, `always` or `on_change` to skip the sync if schema and partitions are unchanged
+  public static final String HIVE_SYNC_MODE = "hsfs.hive.sync.mode";
+  public static final String HIVE_SYNC_MODE_ON_CHANGE = "on_change";
+  public static final String HIVE_SYNC_MAX_DEFERRED_COMMITS = "hsfs.hive.sync.max.deferred.commits";
+  public static final int HIVE_SYNC_MAX_DEFERRED_COMMITS_DEFAULT = 10;
+  public static final String HIVE_SYNC_DEFERRED = "hsfs.hive.sync.deferred";
+
+  // Hudi index configuration stored in the settings of the table
+  public static final String HUDI_INDEX_TYPE = "hsfs.index.type";
+  public static final String HUDI_INDEX_BLOOM_FPP = "hsfs.index.bloom.fpp";
+  public static final String HUDI_INDEX_EXPECTED_KEY_CARDINALITY = "hsfs.index.expected.key.cardinality";
+
+  // Hudi retention policy stored in the settings of the table
+  public static final String HUDI_RETENTION_COMMITS = "hsfs.retention.commits";
+  public static final String HUDI_RETENTION_HOURS = "hsfs.retention.hours";
+  public static final String HUDI_RETENTION_FILE_VERSIONS = "hsfs.retention.file.versions";
 
   //GCS
   public static final String PROPERTY_KEY_FILE = "fs.gs.auth.service.account.json.keyfile";
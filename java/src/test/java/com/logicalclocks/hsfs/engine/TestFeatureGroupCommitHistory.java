@@ -0,0 +1,137 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package com.logicalclocks.hsfs.engine;
+
+import com.logicalclocks.hsfs.FeatureGroupCommit;
+import com.logicalclocks.hsfs.metadata.FeatureGroupApi;
+import com.logicalclocks.hsfs.metadata.FeatureGroupBase;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestFeatureGroupCommitHistory {
+
+  // serves the commits latest first, like Hopsworks, and optionally commits while the history is paged
+  private static class CommitDetailsApi extends FeatureGroupApi {
+    private final List<FeatureGroupCommit> commits = new ArrayList<>();
+    private int calls = 0;
+    private Long commitAfterFirstPage;
+
+    void commit(long commitId) {
+      commits.add(0, FeatureGroupCommit.builder().commitID(commitId).build());
+    }
+
+    @Override
+    public List<FeatureGroupCommit> getCommitDetails(FeatureGroupBase featureGroupBase, Long wallclockTimestamp,
+                                                     Integer offset, Integer limit) {
+      calls++;
+      List<FeatureGroupCommit> page =
+          new ArrayList<>(commits.subList(Math.min(offset, commits.size()), Math.min(offset + limit, commits.size())));
+      if (commitAfterFirstPage != null) {
+        commit(commitAfterFirstPage);
+        commitAfterFirstPage = null;
+      }
+      return page;
+    }
+  }
+
+  private List<Long> commitIds(List<FeatureGroupCommit> commits) {
+    List<Long> commitIds = new ArrayList<>();
+    for (FeatureGroupCommit commit : commits) {
+      commitIds.add(commit.getCommitID());
+    }
+    return commitIds;
+  }
+
+  @Test
+  public void testRefreshPagesThroughHistory() throws Exception {
+    CommitDetailsApi api = new CommitDetailsApi();
+    for (long i = 1; i <= 2500; i++) {
+      api.commit(i);
+    }
+    FeatureGroupCommitHistory commitHistory = new FeatureGroupCommitHistory(api);
+    commitHistory.refresh(null);
+
+    Assert.assertEquals(3, api.calls);
+    List<Long> commitIds = commitIds(commitHistory.getCommits(null, null));
+    Assert.assertEquals(2500, commitIds.size());
+    Assert.assertEquals(Long.valueOf(2500), commitIds.get(0));
+    Assert.assertEquals(Long.valueOf(1), commitIds.get(2499));
+  }
+
+  @Test
+  public void testRefreshFetchesOnlyNewCommits() throws Exception {
+    CommitDetailsApi api = new CommitDetailsApi();
+    for (long i = 1; i <= 10; i++) {
+      api.commit(i);
+    }
+    FeatureGroupCommitHistory commitHistory = new FeatureGroupCommitHistory(api);
+    commitHistory.refresh(null);
+    api.commit(11);
+    api.commit(12);
+    api.calls = 0;
+    commitHistory.refresh(null);
+
+    Assert.assertEquals(1, api.calls);
+    List<Long> commitIds = commitIds(commitHistory.getCommits(null, 3));
+    Assert.assertEquals(3, commitIds.size());
+    Assert.assertEquals(Long.valueOf(12), commitIds.get(0));
+    Assert.assertEquals(Long.valueOf(11), commitIds.get(1));
+    Assert.assertEquals(Long.valueOf(10), commitIds.get(2));
+  }
+
+  @Test
+  public void testRefreshSkipsCommitsShiftedIntoNextPage() throws Exception {
+    CommitDetailsApi api = new CommitDetailsApi();
+    for (long i = 1; i <= 1500; i++) {
+      api.commit(i);
+    }
+    api.commitAfterFirstPage = 1501L;
+    FeatureGroupCommitHistory commitHistory = new FeatureGroupCommitHistory(api);
+    commitHistory.refresh(null);
+
+    List<Long> commitIds = commitIds(commitHistory.getCommits(null, null));
+    Assert.assertEquals(1500, commitIds.size());
+    for (int i = 0; i < commitIds.size(); i++) {
+      Assert.assertEquals(Long.valueOf(1500 - i), commitIds.get(i));
+    }
+
+    commitHistory.refresh(null);
+    Assert.assertEquals(Long.valueOf(1501), commitHistory.getCommits(null, 1).get(0).getCommitID());
+  }
+
+  @Test
+  public void testGetCommitsAsOf() throws Exception {
+    CommitDetailsApi api = new CommitDetailsApi();
+    api.commit(10);
+    api.commit(20);
+    api.commit(30);
+    FeatureGroupCommitHistory commitHistory = new FeatureGroupCommitHistory(api);
+    commitHistory.refresh(null);
+
+    List<Long> commitIds = commitIds(commitHistory.getCommits(25L, null));
+    Assert.assertEquals(2, commitIds.size());
+    Assert.assertEquals(Long.valueOf(20), commitIds.get(0));
+    Assert.assertEquals(Long.valueOf(10), commitIds.get(1));
+
+    Assert.assertEquals(Long.valueOf(20), commitHistory.getCommits(20L, 1).get(0).getCommitID());
+    Assert.assertEquals(Long.valueOf(30), commitHistory.getCommits(30L, 1).get(0).getCommitID());
+    Assert.assertTrue(commitHistory.getCommits(5L, null).isEmpty());
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package com.logicalclocks.hsfs.engine;
+
+import com.logicalclocks.hsfs.FeatureGroup;
+import com.logicalclocks.hsfs.FeatureGroupCommit;
+import com.logicalclocks.hsfs.FeatureStoreException;
+import com.logicalclocks.hsfs.HudiOperationType;
+import com.logicalclocks.hsfs.Storage;
+import com.logicalclocks.hsfs.engine.hudi.HudiEngine;
+import com.logicalclocks.hsfs.metadata.FeatureGroupApi;
+import com.logicalclocks.hsfs.metadata.FeatureGroupBase;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestFeatureGroupEngine {
+
+  // records the insert and fails it with the given exception
+  private static class InsertFeatureGroup extends FeatureGroup {
+    private final Exception failure;
+    private final CountDownLatch concurrentInserts;
+    private boolean inserted = false;
+    private boolean concurrent = false;
+
+    InsertFeatureGroup(int id, Exception failure, CountDownLatch concurrentInserts) {
+      super(id, null, null);
+      this.failure = failure;
+      this.concurrentInserts = concurrentInserts;
+      setName("fg" + id);
+      setVersion(1);
+    }
+
+    @Override
+    public void insert(Dataset<Row> featureData, Storage storage, boolean overwrite, HudiOperationType operation,
+                       Map<String, String> writeOptions) throws FeatureStoreException, IOException {
+      inserted = true;
+      if (concurrentInserts != null) {
+        concurrentInserts.countDown();
+        try {
+          concurrent = concurrentInserts.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      } else if (failure instanceof FeatureStoreException) {
+        throw (FeatureStoreException) failure;
+      } else if (failure != null) {
+        throw (RuntimeException) failure;
+      }
+    }
+  }
+
+  // publishes commits until the commit of the given feature group, which fails
+  private static class PublishApi extends FeatureGroupApi {
+    private final List<FeatureGroupBase> published = new ArrayList<>();
+    private FeatureGroupBase failingFeatureGroup;
+
+    @Override
+    public FeatureGroupCommit featureGroupCommit(FeatureGroupBase featureGroup, FeatureGroupCommit featureGroupCommit)
+        throws FeatureStoreException {
+      if (featureGroup == failingFeatureGroup) {
+        throw new FeatureStoreException("Could not publish commit");
+      }
+      published.add(featureGroup);
+      return featureGroupCommit;
+    }
+  }
+
+  // records the rolled back commits, optionally failing the roll back of a feature group
+  private static class RollbackHudiEngine extends HudiEngine {
+    private final List<String> rolledBack = new ArrayList<>();
+    private FeatureGroupBase failingFeatureGroup;
+
+    @Override
+    public void rollbackCommit(FeatureGroupBase featureGroup, String instantTime) throws FeatureStoreException {
+      if (featureGroup == failingFeatureGroup) {
+        throw new FeatureStoreException("Could not roll back commit");
+      }
+      rolledBack.add(instantTime);
+    }
+  }
+
+  private Map<FeatureGroup, FeatureGroupCommit> stageCommits(List<FeatureGroup> featureGroups) {
+    Map<FeatureGroup, FeatureGroupCommit> stagedCommits = new LinkedHashMap<>();
+    for (FeatureGroup featureGroup : featureGroups) {
+      stagedCommits.put(featureGroup,
+          FeatureGroupCommit.builder().commitDateString("2022010100000000" + featureGroup.getId()).build());
+    }
+    return stagedCommits;
+  }
+
+  @Test
+  public void testPublishStagedCommits() throws Exception {
+    PublishApi api = new PublishApi();
+    RollbackHudiEngine hudiEngine = new RollbackHudiEngine();
+    List<FeatureGroup> featureGroups = Arrays.asList(new InsertFeatureGroup(1, null, null),
+        new InsertFeatureGroup(2, null, null), new InsertFeatureGroup(3, null, null));
+
+    new FeatureGroupEngine(api, hudiEngine).publishStagedCommits(featureGroups, stageCommits(featureGroups));
+    Assert.assertEquals(featureGroups, api.published);
+    Assert.assertTrue(hudiEngine.rolledBack.isEmpty());
+  }
+
+  @Test
+  public void testPartialPublishRollsBackAllCommits() throws Exception {
+    PublishApi api = new PublishApi();
+    RollbackHudiEngine hudiEngine = new RollbackHudiEngine();
+    List<FeatureGroup> featureGroups = Arrays.asList(new InsertFeatureGroup(1, null, null),
+        new InsertFeatureGroup(2, null, null), new InsertFeatureGroup(3, null, null));
+    api.failingFeatureGroup = featureGroups.get(1);
+
+    try {
+      new FeatureGroupEngine(api, hudiEngine).publishStagedCommits(featureGroups, stageCommits(featureGroups));
+      Assert.fail("The failed publication should have been reported");
+    } catch (FeatureStoreException e) {
+      Assert.assertEquals("Could not publish commit", e.getMessage());
+    }
+    Assert.assertEquals(featureGroups.subList(0, 1), api.published);
+    // the commit published before the failure is rolled back as well
+    Assert.assertEquals(new HashSet<>(Arrays.asList("20220101000000001", "20220101000000002", "20220101000000003")),
+        new HashSet<>(hudiEngine.rolledBack));
+  }
+
+  @Test
+  public void testFailedRollbackDoesNotStopOtherRollbacks() throws Exception {
+    PublishApi api = new PublishApi();
+    RollbackHudiEngine hudiEngine = new RollbackHudiEngine();
+    List<FeatureGroup> featureGroups = Arrays.asList(new InsertFeatureGroup(1, null, null),
+        new InsertFeatureGroup(2, null, null), new InsertFeatureGroup(3, null, null));
+    api.failingFeatureGroup = featureGroups.get(2);
+    hudiEngine.failingFeatureGroup = featureGroups.get(0);
+
+    try {
+      new FeatureGroupEngine(api, hudiEngine).publishStagedCommits(featureGroups, stageCommits(featureGroups));
+      Assert.fail("The failed publication should have been reported");
+    } catch (FeatureStoreException e) {
+      Assert.assertEquals("Could not publish commit", e.getMessage());
+    }
+    Assert.assertEquals(new HashSet<>(Arrays.asList("20220101000000002", "20220101000000003")),
+        new HashSet<>(hudiEngine.rolledBack));
+  }
+
+  @Test
+  public void testInsertAllRunsAllInsertsAndThrowsFirstFailure() throws Exception {
+    IOException firstFailure = new IOException("first");
+    FeatureStoreException secondFailure = new FeatureStoreException("second");
+    InsertFeatureGroup succeeding = new InsertFeatureGroup(1, null, null);
+    InsertFeatureGroup failingFirst = new InsertFeatureGroup(2, firstFailure, null);
+    InsertFeatureGroup failingSecond = new InsertFeatureGroup(3, secondFailure, null);
+    InsertFeatureGroup succeedingAfterFailures = new InsertFeatureGroup(4, null, null);
+    Map<FeatureGroup, Dataset<Row>> featureGroupData = new LinkedHashMap<>();
+    featureGroupData.put(succeeding, null);
+    featureGroupData.put(failingFirst, null);
+    featureGroupData.put(failingSecond, null);
+    featureGroupData.put(succeedingAfterFailures, null);
+
+    try {
+      new FeatureGroupEngine().insertAll(featureGroupData, null, false, null, 1);
+      Assert.fail("The failed inserts should have been reported");
+    } catch (IOException e) {
+      Assert.assertSame(firstFailure, e);
+      Assert.assertEquals(1, e.getSuppressed().length);
+      Assert.assertSame(secondFailure, e.getSuppressed()[0]);
+    }
+    Assert.assertTrue(succeeding.inserted);
+    Assert.assertTrue(failingFirst.inserted);
+    Assert.assertTrue(failingSecond.inserted);
+    Assert.assertTrue(succeedingAfterFailures.inserted);
+  }
+
+  @Test
+  public void testInsertAllWrapsUncheckedFailures() throws Exception {
+    RuntimeException failure = new IllegalStateException("unchecked");
+    Map<FeatureGroup, Dataset<Row>> featureGroupData = new LinkedHashMap<>();
+    featureGroupData.put(new InsertFeatureGroup(1, failure, null), null);
+
+    try {
+      new FeatureGroupEngine().insertAll(featureGroupData, null, false, null, 1);
+      Assert.fail("The failed insert should have been reported");
+    } catch (FeatureStoreException e) {
+      Assert.assertSame(failure, e.getCause());
+    }
+  }
+
+  @Test
+  public void testInsertAllRunsInsertsConcurrently() throws Exception {
+    CountDownLatch concurrentInserts = new CountDownLatch(2);
+    InsertFeatureGroup first = new InsertFeatureGroup(1, null, concurrentInserts);
+    InsertFeatureGroup second = new InsertFeatureGroup(2, null, concurrentInserts);
+    Map<FeatureGroup, Dataset<Row>> featureGroupData = new LinkedHashMap<>();
+    featureGroupData.put(first, null);
+    featureGroupData.put(second, null);
+
+    new FeatureGroupEngine().insertAll(featureGroupData, null, false, null, 2);
+    Assert.assertTrue(first.concurrent);
+    Assert.assertTrue(second.concurrent);
+  }
+
+  @Test
+  public void testInsertAllEmpty() throws Exception {
+    new FeatureGroupEngine().insertAll(new LinkedHashMap<>(), null, false, null, 4);
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package com.logicalclocks.hsfs.engine;
+
+import com.logicalclocks.hsfs.Feature;
+import com.logicalclocks.hsfs.FeatureGroup;
+import com.logicalclocks.hsfs.FeatureStoreException;
+import com.logicalclocks.hsfs.util.Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TestFeatureGroupUtils {
+
+  private final FeatureGroupUtils utils = new FeatureGroupUtils();
+
+  @Test
+  public void testKafkaProducerConfigWithoutProfile() {
+    Assert.assertTrue(utils.getKafkaProducerConfig(null).isEmpty());
+
+    Map<String, String> writeOptions = new HashMap<>();
+    writeOptions.put(Constants.KAFKA_LINGER_MS, "5");
+    Map<String, String> config = utils.getKafkaProducerConfig(writeOptions);
+    Assert.assertEquals(writeOptions, config);
+  }
+
+  @Test
+  public void testKafkaProducerConfigWithProfile() {
+    Map<String, String> writeOptions = new HashMap<>();
+    writeOptions.put(Constants.KAFKA_INGESTION_PROFILE, "true");
+    Map<String, String> config = utils.getKafkaProducerConfig(writeOptions);
+    Assert.assertEquals("20", config.get(Constants.KAFKA_LINGER_MS));
+    Assert.assertEquals("262144", config.get(Constants.KAFKA_BATCH_SIZE));
+    Assert.assertEquals("lz4", config.get(Constants.KAFKA_COMPRESSION_TYPE));
+    Assert.assertEquals("true", config.get(Constants.KAFKA_ENABLE_IDEMPOTENCE));
+    Assert.assertEquals("all", config.get(Constants.KAFKA_ACKS));
+    Assert.assertEquals("5", config.get(Constants.KAFKA_MAX_IN_FLIGHT_REQUESTS));
+  }
+
+  @Test
+  public void testKafkaProducerConfigUserOptionsOverrideProfile() {
+    Map<String, String> writeOptions = new HashMap<>();
+    writeOptions.put(Constants.KAFKA_INGESTION_PROFILE, "true");
+    writeOptions.put(Constants.KAFKA_COMPRESSION_TYPE, "zstd");
+    Map<String, String> config = utils.getKafkaProducerConfig(writeOptions);
+    Assert.assertEquals("zstd", config.get(Constants.KAFKA_COMPRESSION_TYPE));
+    Assert.assertEquals("20", config.get(Constants.KAFKA_LINGER_MS));
+  }
+
+  @Test
+  public void testKafkaIngestionProfileEnabled() {
+    Map<String, String> writeOptions = new HashMap<>();
+    Assert.assertFalse(utils.isKafkaIngestionProfileEnabled(null));
+    Assert.assertFalse(utils.isKafkaIngestionProfileEnabled(writeOptions));
+    writeOptions.put(Constants.KAFKA_INGESTION_PROFILE, "false");
+    Assert.assertFalse(utils.isKafkaIngestionProfileEnabled(writeOptions));
+    writeOptions.put(Constants.KAFKA_INGESTION_PROFILE, "TRUE");
+    Assert.assertTrue(utils.isKafkaIngestionProfileEnabled(writeOptions));
+  }
+
+  private FeatureGroup deleteFeatureGroup() throws FeatureStoreException {
+    Feature precombine = new Feature("updated", "timestamp", false, false);
+    precombine.setHudiPrecombineKey(true);
+    FeatureGroup featureGroup = new FeatureGroup();
+    featureGroup.setFeatures(Arrays.asList(new Feature("id", "int", true, false),
+        new Feature("day", "string", false, true), new Feature("amount", "double", false, false), precombine,
+        new Feature("ts", "timestamp", false, false)));
+    return featureGroup;
+  }
+
+  @Test
+  public void testGetDeleteKeyColumns() throws Exception {
+    FeatureGroup featureGroup = deleteFeatureGroup();
+    Assert.assertEquals(Arrays.asList("id", "day"), utils.getDeleteKeyColumns(featureGroup));
+    // the event time is part of the record key
+    featureGroup.setEventTime("ts");
+    Assert.assertEquals(Arrays.asList("id", "ts", "day"), utils.getDeleteKeyColumns(featureGroup));
+  }
+
+  @Test
+  public void testGetDeleteColumns() throws Exception {
+    FeatureGroup featureGroup = deleteFeatureGroup();
+    // features used by the filter only are not read
+    Assert.assertEquals(Arrays.asList("id", "day", "updated"), utils.getDeleteColumns(featureGroup));
+  }
+}
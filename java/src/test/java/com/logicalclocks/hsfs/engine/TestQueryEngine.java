@@ -0,0 +1,320 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package com.logicalclocks.hsfs.engine;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.logicalclocks.hsfs.Feature;
+import com.logicalclocks.hsfs.FeatureGroup;
+import com.logicalclocks.hsfs.FeatureGroupCommit;
+import com.logicalclocks.hsfs.FeatureStoreException;
+import com.logicalclocks.hsfs.TimeTravelFormat;
+import com.logicalclocks.hsfs.constructor.FilterLogic;
+import com.logicalclocks.hsfs.constructor.FsQuery;
+import com.logicalclocks.hsfs.constructor.HudiFeatureGroupAlias;
+import com.logicalclocks.hsfs.constructor.OnDemandFeatureGroupAlias;
+import com.logicalclocks.hsfs.constructor.Query;
+import com.logicalclocks.hsfs.metadata.FeatureGroupApi;
+import com.logicalclocks.hsfs.metadata.FeatureGroupBase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class TestQueryEngine {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  // serves the last commit of every feature group
+  private static class LastCommitApi extends FeatureGroupApi {
+    private final Map<Integer, Long> lastCommits = new HashMap<>();
+
+    @Override
+    public List<FeatureGroupCommit> getCommitDetails(FeatureGroupBase featureGroupBase, Long wallclockTimestamp,
+                                                     Integer limit) {
+      Long commitId = lastCommits.get(featureGroupBase.getId());
+      return commitId == null ? new ArrayList<>()
+          : Collections.singletonList(FeatureGroupCommit.builder().commitID(commitId).build());
+    }
+  }
+
+  private FeatureGroupBase featureGroup(int id) {
+    FeatureGroupBase featureGroup = new FeatureGroupBase();
+    featureGroup.setId(id);
+    featureGroup.setName("fg" + id);
+    return featureGroup;
+  }
+
+  private Query query(FeatureGroupBase featureGroup) {
+    return new Query(featureGroup, Collections.singletonList(new Feature("id")));
+  }
+
+  private FsQuery fsQuery(String sql, FeatureGroupBase... hudiFeatureGroups) {
+    FsQuery fsQuery = new FsQuery();
+    fsQuery.setQuery(sql);
+    List<HudiFeatureGroupAlias> aliases = new ArrayList<>();
+    for (FeatureGroupBase featureGroup : hudiFeatureGroups) {
+      HudiFeatureGroupAlias alias = new HudiFeatureGroupAlias();
+      alias.setAlias(featureGroup.getName());
+      alias.setFeatureGroup(featureGroup);
+      aliases.add(alias);
+    }
+    fsQuery.setHudiCachedFeatureGroups(aliases);
+    return fsQuery;
+  }
+
+  // statistics in the format computed by deequ, with the ratio of the most frequent values of every column
+  private JsonNode statistics(long rows, String column, double maxRatio) throws Exception {
+    return objectMapper.readTree("{\"columns\": ["
+        + "{\"column\": \"" + column + "\", \"numRecordsNonNull\": " + (rows - 1) + ", \"numRecordsNull\": 1,"
+        + " \"histogram\": [{\"value\": \"a\", \"ratio\": " + maxRatio + "}, {\"value\": \"b\", \"ratio\": 0.01}]},"
+        + "{\"column\": \"other\", \"numRecordsNonNull\": " + rows + ", \"numRecordsNull\": 0,"
+        + " \"histogram\": [{\"value\": \"c\", \"ratio\": 0.99}]}]}");
+  }
+
+  @Test
+  public void testGetRowCount() throws Exception {
+    Assert.assertEquals(Long.valueOf(1000), QueryEngine.getRowCount(statistics(1000, "id", 0.1)));
+    Assert.assertNull(QueryEngine.getRowCount(null));
+    Assert.assertNull(QueryEngine.getRowCount(objectMapper.readTree("{\"columns\": []}")));
+  }
+
+  @Test
+  public void testGetMaxValueRatioOnlyReadsJoinKeys() throws Exception {
+    JsonNode statistics = statistics(1000, "id", 0.4);
+    Assert.assertEquals(0.4, QueryEngine.getMaxValueRatio(statistics, Collections.singletonList("id")), 0.0);
+    Assert.assertEquals(0.99, QueryEngine.getMaxValueRatio(statistics, Arrays.asList("id", "other")), 0.0);
+    Assert.assertEquals(0.0, QueryEngine.getMaxValueRatio(statistics, Collections.singletonList("missing")), 0.0);
+    Assert.assertEquals(0.0, QueryEngine.getMaxValueRatio(null, Collections.singletonList("id")), 0.0);
+  }
+
+  @Test
+  public void testIsBroadcast() throws Exception {
+    Assert.assertTrue(QueryEngine.isBroadcast(statistics(1000, "id", 0.1), 1000));
+    Assert.assertFalse(QueryEngine.isBroadcast(statistics(1001, "id", 0.1), 1000));
+    // without statistics the size of the feature group is unknown
+    Assert.assertFalse(QueryEngine.isBroadcast(null, 1000));
+  }
+
+  @Test
+  public void testIsSkewed() throws Exception {
+    JsonNode statistics = statistics(1000, "id", 0.3);
+    Assert.assertTrue(QueryEngine.isSkewed(statistics, Collections.singletonList("id"), 0.3));
+    Assert.assertFalse(QueryEngine.isSkewed(statistics, Collections.singletonList("id"), 0.5));
+    Assert.assertFalse(QueryEngine.isSkewed(null, Collections.singletonList("id"), 0.5));
+  }
+
+  @Test
+  public void testResultCachePathChangesWithCommits() throws Exception {
+    LastCommitApi api = new LastCommitApi();
+    QueryEngine queryEngine = new QueryEngine(api);
+    FeatureGroupBase left = featureGroup(1);
+    FeatureGroupBase right = featureGroup(2);
+    Query query = query(left).join(query(right));
+    FsQuery fsQuery = fsQuery("SELECT * FROM fg1 JOIN fg2", left, right);
+    api.lastCommits.put(1, 10L);
+    api.lastCommits.put(2, 20L);
+
+    String path = queryEngine.getResultCachePath(query, fsQuery, null, "/cache");
+    Assert.assertEquals("/cache", new Path(path).getParent().toString());
+    Assert.assertEquals(path, queryEngine.getResultCachePath(query, fsQuery, null, "/cache"));
+
+    api.lastCommits.put(2, 21L);
+    String pathAfterCommit = queryEngine.getResultCachePath(query, fsQuery, null, "/cache");
+    Assert.assertNotEquals(path, pathAfterCommit);
+
+    HudiFeatureGroupAlias leftAlias = fsQuery.getHudiCachedFeatureGroups().get(0);
+    leftAlias.setLeftFeatureGroupEndTimestamp(5L);
+    Assert.assertNotEquals(pathAfterCommit, queryEngine.getResultCachePath(query, fsQuery, null, "/cache"));
+  }
+
+  @Test
+  public void testResultCachePathReadOptions() throws Exception {
+    QueryEngine queryEngine = new QueryEngine(new LastCommitApi());
+    FeatureGroupBase featureGroup = featureGroup(1);
+    Query query = query(featureGroup);
+    FsQuery fsQuery = fsQuery("SELECT * FROM fg1", featureGroup);
+
+    Map<String, String> readOptions = new HashMap<>();
+    readOptions.put("a", "1");
+    readOptions.put("b", "2");
+    Map<String, String> sameReadOptions = new HashMap<>();
+    sameReadOptions.put("b", "2");
+    sameReadOptions.put("a", "1");
+    String path = queryEngine.getResultCachePath(query, fsQuery, readOptions, "/cache");
+    Assert.assertEquals(path, queryEngine.getResultCachePath(query, fsQuery, sameReadOptions, "/cache"));
+    Assert.assertNotEquals(path, queryEngine.getResultCachePath(query, fsQuery, null, "/cache"));
+    Assert.assertNotEquals(path, queryEngine.getResultCachePath(query, fsQuery("SELECT id FROM fg1", featureGroup),
+        readOptions, "/cache"));
+  }
+
+  @Test
+  public void testResultCacheNotUsedWithoutTimeTravel() throws Exception {
+    QueryEngine queryEngine = new QueryEngine(new LastCommitApi());
+    FeatureGroupBase left = featureGroup(1);
+    FeatureGroupBase right = featureGroup(2);
+
+    // the right feature group has no commit timeline
+    Assert.assertNull(queryEngine.getResultCachePath(query(left).join(query(right)),
+        fsQuery("SELECT * FROM fg1 JOIN fg2", left), null, "/cache"));
+
+    FsQuery onDemandQuery = fsQuery("SELECT * FROM fg1", left);
+    onDemandQuery.setOnDemandFeatureGroups(Collections.singletonList(new OnDemandFeatureGroupAlias()));
+    Assert.assertNull(queryEngine.getResultCachePath(query(left), onDemandQuery, null, "/cache"));
+  }
+
+  @Test
+  public void testEvictResultCache() throws Exception {
+    FileSystem fileSystem = FileSystem.getLocal(new Configuration());
+    Path cacheLocation = new Path(Files.createTempDirectory("hsfs-cache").toUri());
+    long now = System.currentTimeMillis();
+    Path expired = new Path(cacheLocation, "expired");
+    Path recent = new Path(cacheLocation, "recent");
+    fileSystem.mkdirs(expired);
+    fileSystem.mkdirs(recent);
+    fileSystem.setTimes(expired, now - TimeUnit.HOURS.toMillis(25), -1);
+    fileSystem.setTimes(recent, now - TimeUnit.HOURS.toMillis(23), -1);
+
+    QueryEngine.evictResultCache(fileSystem, cacheLocation, now - TimeUnit.HOURS.toMillis(24));
+
+    Assert.assertFalse(fileSystem.exists(expired));
+    Assert.assertTrue(fileSystem.exists(recent));
+    fileSystem.delete(cacheLocation, true);
+  }
+
+  private FeatureGroup timeTravelFeatureGroup(int id, TimeTravelFormat timeTravelFormat) throws Exception {
+    FeatureGroup featureGroup = new FeatureGroup(id, null,
+        Arrays.asList(new Feature("id", "int", true, false), new Feature("value", "int", false, false)));
+    featureGroup.setName("fg" + id);
+    featureGroup.setTimeTravelFormat(timeTravelFormat);
+    return featureGroup;
+  }
+
+  private void assertMaterializeIncrementalFails(Query query, FeatureGroup target, String message) throws Exception {
+    try {
+      new QueryEngine().materializeIncremental(query, target, "20220101", "20220102", null);
+      Assert.fail("Materialization should have been rejected");
+    } catch (FeatureStoreException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains(message));
+    }
+  }
+
+  @Test
+  public void testMaterializeIncrementalRequiresTimeTravelTarget() throws Exception {
+    FeatureGroup left = timeTravelFeatureGroup(1, TimeTravelFormat.HUDI);
+    assertMaterializeIncrementalFails(new Query(left, left.getFeatures()),
+        timeTravelFeatureGroup(2, TimeTravelFormat.NONE), "time travel enabled feature group");
+  }
+
+  @Test
+  public void testMaterializeIncrementalRequiresPrimaryKeys() throws Exception {
+    FeatureGroup left = timeTravelFeatureGroup(1, TimeTravelFormat.HUDI);
+    assertMaterializeIncrementalFails(new Query(left, Collections.singletonList(new Feature("value"))),
+        timeTravelFeatureGroup(2, TimeTravelFormat.HUDI), "select the primary keys");
+  }
+
+  @Test
+  public void testMaterializeIncrementalValidatesJoinsBeforeReading() throws Exception {
+    FeatureGroup left = timeTravelFeatureGroup(1, TimeTravelFormat.HUDI);
+    FeatureGroup right = timeTravelFeatureGroup(2, TimeTravelFormat.NONE);
+    FeatureGroup target = timeTravelFeatureGroup(3, TimeTravelFormat.HUDI);
+
+    // the changes of the left feature group would be read through Spark if the joins were validated afterwards
+    assertMaterializeIncrementalFails(new Query(left, left.getFeatures()).join(new Query(right, right.getFeatures())),
+        target, "fg2 is not");
+
+    FeatureGroup nested = timeTravelFeatureGroup(4, TimeTravelFormat.HUDI);
+    Query nestedQuery = new Query(target, target.getFeatures()).join(new Query(nested, nested.getFeatures()));
+    assertMaterializeIncrementalFails(new Query(left, left.getFeatures()).join(nestedQuery),
+        timeTravelFeatureGroup(5, TimeTravelFormat.HUDI), "single level of joins");
+  }
+
+  @Test
+  public void testGetPartitionValues() {
+    List<String> partitionColumns = Arrays.asList("year", "day");
+    Map<String, String> hivePartition = QueryEngine.getPartitionValues("year=2022/day=20220101", partitionColumns);
+    Assert.assertEquals("2022", hivePartition.get("year"));
+    Assert.assertEquals("20220101", hivePartition.get("day"));
+
+    Map<String, String> hudiPartition = QueryEngine.getPartitionValues("2022/20220101", partitionColumns);
+    Assert.assertEquals(hivePartition, hudiPartition);
+
+    Assert.assertTrue(QueryEngine.getPartitionValues("", partitionColumns).isEmpty());
+  }
+
+  @Test
+  public void testMayMatchComparisons() {
+    FeatureGroupBase featureGroup = featureGroup(1);
+    Map<String, String> partition = QueryEngine.getPartitionValues("day=9", Collections.singletonList("day"));
+    Feature day = new Feature("day");
+
+    Assert.assertTrue(QueryEngine.mayMatch(day.eq(9), featureGroup, partition));
+    Assert.assertFalse(QueryEngine.mayMatch(day.ne(9), featureGroup, partition));
+    // numeric values are compared as numbers, not as strings
+    Assert.assertFalse(QueryEngine.mayMatch(day.gt(10), featureGroup, partition));
+    Assert.assertTrue(QueryEngine.mayMatch(day.lt(10), featureGroup, partition));
+    Assert.assertTrue(QueryEngine.mayMatch(day.ge(9), featureGroup, partition));
+    Assert.assertFalse(QueryEngine.mayMatch(day.le(8), featureGroup, partition));
+    Assert.assertTrue(QueryEngine.mayMatch(day.in(Arrays.asList(1, 9)), featureGroup, partition));
+    Assert.assertFalse(QueryEngine.mayMatch(day.in(Arrays.asList(1, 2)), featureGroup, partition));
+
+    Map<String, String> stringPartition = QueryEngine.getPartitionValues("day=b", Collections.singletonList("day"));
+    Assert.assertTrue(QueryEngine.mayMatch(day.gt("a"), featureGroup, stringPartition));
+    Assert.assertFalse(QueryEngine.mayMatch(day.gt("c"), featureGroup, stringPartition));
+  }
+
+  @Test
+  public void testMayMatchKeepsPartitionsFiltersCannotExclude() {
+    FeatureGroupBase featureGroup = featureGroup(1);
+    Map<String, String> partition = QueryEngine.getPartitionValues("day=9", Collections.singletonList("day"));
+
+    // filters on features which are not partition columns
+    Assert.assertTrue(QueryEngine.mayMatch(new Feature("value").eq(1), featureGroup, partition));
+    // filters on the features of another feature group of the query
+    Feature otherDay = new Feature("day");
+    otherDay.setFeatureGroupId(2);
+    Assert.assertTrue(QueryEngine.mayMatch(otherDay.eq(1), featureGroup, partition));
+    // comparisons between features
+    Assert.assertTrue(QueryEngine.mayMatch(new Feature("day").eq(new Feature("other")), featureGroup, partition));
+  }
+
+  @Test
+  public void testMayMatchFilterLogic() {
+    FeatureGroupBase featureGroup = featureGroup(1);
+    Map<String, String> partition = QueryEngine.getPartitionValues("day=9", Collections.singletonList("day"));
+    Feature day = new Feature("day");
+    Feature value = new Feature("value");
+
+    Assert.assertFalse(QueryEngine.mayMatch(day.eq(1).and(value.eq(1)), featureGroup, partition));
+    Assert.assertTrue(QueryEngine.mayMatch(day.eq(1).or(value.eq(1)), featureGroup, partition));
+    Assert.assertTrue(QueryEngine.mayMatch(day.eq(1).or(day.eq(9)), featureGroup, partition));
+
+    FilterLogic nested = day.eq(1).or(day.eq(2)).and(day.gt(0));
+    Assert.assertFalse(QueryEngine.mayMatch(nested, featureGroup, partition));
+    Assert.assertTrue(QueryEngine.mayMatch(day.eq(1).or(day.eq(2)).or(day.gt(5)), featureGroup, partition));
+  }
+}
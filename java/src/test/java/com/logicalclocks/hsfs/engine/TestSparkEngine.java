@@ -0,0 +1,99 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package com.logicalclocks.hsfs.engine;
+
+import com.logicalclocks.hsfs.FeatureStoreException;
+import com.logicalclocks.hsfs.util.Constants;
+import org.apache.spark.storage.StorageLevel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TestSparkEngine {
+
+  @Test
+  public void testGetWriteStorageLevel() {
+    Assert.assertEquals(StorageLevel.MEMORY_AND_DISK(), SparkEngine.getWriteStorageLevel(null));
+    Assert.assertEquals(StorageLevel.MEMORY_AND_DISK(), SparkEngine.getWriteStorageLevel(new HashMap<>()));
+    Assert.assertEquals(StorageLevel.DISK_ONLY(),
+        SparkEngine.getWriteStorageLevel(Collections.singletonMap(Constants.WRITE_STORAGE_LEVEL, "disk_only")));
+    Assert.assertEquals(StorageLevel.NONE(),
+        SparkEngine.getWriteStorageLevel(Collections.singletonMap(Constants.WRITE_STORAGE_LEVEL, "NONE")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGetWriteStorageLevelInvalid() {
+    SparkEngine.getWriteStorageLevel(Collections.singletonMap(Constants.WRITE_STORAGE_LEVEL, "MEMORY_ONCE"));
+  }
+
+  @Test
+  public void testGetTargetFileSize() throws Exception {
+    Assert.assertNull(SparkEngine.getTargetFileSize(null));
+    Assert.assertNull(SparkEngine.getTargetFileSize(Collections.singletonMap(Constants.WRITE_TARGET_FILE_SIZE, "")));
+    Assert.assertEquals(Long.valueOf(134217728L),
+        SparkEngine.getTargetFileSize(Collections.singletonMap(Constants.WRITE_TARGET_FILE_SIZE, " 134217728 ")));
+  }
+
+  @Test(expected = FeatureStoreException.class)
+  public void testGetTargetFileSizeNotANumber() throws Exception {
+    SparkEngine.getTargetFileSize(Collections.singletonMap(Constants.WRITE_TARGET_FILE_SIZE, "128MB"));
+  }
+
+  @Test(expected = FeatureStoreException.class)
+  public void testGetTargetFileSizeNotPositive() throws Exception {
+    SparkEngine.getTargetFileSize(Collections.singletonMap(Constants.WRITE_TARGET_FILE_SIZE, "0"));
+  }
+
+  @Test
+  public void testGetTargetFileCount() {
+    long targetFileSize = 128L * 1024 * 1024;
+    Assert.assertEquals(1, SparkEngine.getTargetFileCount(0L, targetFileSize));
+    Assert.assertEquals(1, SparkEngine.getTargetFileCount(targetFileSize, targetFileSize));
+    Assert.assertEquals(2, SparkEngine.getTargetFileCount(targetFileSize + 1, targetFileSize));
+    Assert.assertEquals(8, SparkEngine.getTargetFileCount(1024L * 1024 * 1024, targetFileSize));
+    Assert.assertEquals(Constants.WRITE_MAX_FILE_COUNT, SparkEngine.getTargetFileCount(Long.MAX_VALUE / 2, 1L));
+  }
+
+  @Test
+  public void testBackfillChunkNames() {
+    Assert.assertEquals("year=2022/day=null",
+        SparkEngine.getPartitionChunkName(Arrays.asList("year", "day"), Arrays.asList(2022, null)));
+    Assert.assertEquals("3/16", SparkEngine.getHashChunkName(3, 16));
+  }
+
+  @Test
+  public void testGetMaxOffsetsPerTrigger() {
+    Map<String, String> options = new HashMap<>();
+    Assert.assertNull(SparkEngine.getMaxOffsetsPerTrigger(null));
+    Assert.assertNull(SparkEngine.getMaxOffsetsPerTrigger(options));
+    // one second worth of records per micro-batch without a trigger interval
+    options.put(Constants.STREAM_MAX_RECORDS_PER_SECOND, "500");
+    Assert.assertEquals(Long.valueOf(500L), SparkEngine.getMaxOffsetsPerTrigger(options));
+    options.put(Constants.STREAM_TRIGGER_INTERVAL_MS, "10000");
+    Assert.assertEquals(Long.valueOf(5000L), SparkEngine.getMaxOffsetsPerTrigger(options));
+    // at least one record per micro-batch
+    options.put(Constants.STREAM_TRIGGER_INTERVAL_MS, "1");
+    Assert.assertEquals(Long.valueOf(1L), SparkEngine.getMaxOffsetsPerTrigger(options));
+    // a limit set by the user is kept
+    options.put("maxOffsetsPerTrigger", "100");
+    Assert.assertNull(SparkEngine.getMaxOffsetsPerTrigger(options));
+  }
+}
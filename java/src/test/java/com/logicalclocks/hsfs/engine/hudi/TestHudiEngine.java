@@ -0,0 +1,230 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package com.logicalclocks.hsfs.engine.hudi;
+
+import com.logicalclocks.hsfs.Feature;
+import com.logicalclocks.hsfs.HudiIndexType;
+import com.logicalclocks.hsfs.HudiRetentionPolicy;
+import com.logicalclocks.hsfs.util.Constants;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hudi.common.model.HoodieCommitMetadata;
+import org.apache.hudi.common.model.HoodiePartitionMetadata;
+import org.apache.hudi.common.model.HoodieWriteStat;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class TestHudiEngine {
+
+  @Test
+  public void testRetentionFileVersionsTakePrecedence() {
+    Map<String, String> retentionSettings = HudiEngine.getRetentionSettings(new HudiRetentionPolicy(5, 24, 3));
+    Assert.assertEquals(Collections.singletonMap(Constants.HUDI_RETENTION_FILE_VERSIONS, "3"), retentionSettings);
+  }
+
+  @Test
+  public void testRetentionHoursTakePrecedenceOverCommits() {
+    Map<String, String> retentionSettings = HudiEngine.getRetentionSettings(new HudiRetentionPolicy(5, 24, null));
+    Assert.assertEquals(Collections.singletonMap(Constants.HUDI_RETENTION_HOURS, "24"), retentionSettings);
+  }
+
+  @Test
+  public void testRetentionCommits() {
+    Map<String, String> retentionSettings = HudiEngine.getRetentionSettings(new HudiRetentionPolicy(5, null, null));
+    Assert.assertEquals(Collections.singletonMap(Constants.HUDI_RETENTION_COMMITS, "5"), retentionSettings);
+  }
+
+  @Test
+  public void testRetentionEmptyPolicy() {
+    Assert.assertTrue(HudiEngine.getRetentionSettings(new HudiRetentionPolicy()).isEmpty());
+  }
+
+  @Test
+  public void testCommitsRetainedByTime() {
+    // two commits in the window, plus the commit being written and the last commit before the window
+    Assert.assertEquals(4, HudiEngine.getCommitsRetainedByTime(
+        Arrays.asList("20220101000000000", "20220102000000000", "20220103000000000"), "20220102000000000"));
+  }
+
+  @Test
+  public void testCommitsRetainedByTimeWithoutCommitsInWindow() {
+    Assert.assertEquals(2, HudiEngine.getCommitsRetainedByTime(
+        Arrays.asList("20220101000000000", "20220102000000000"), "20220103000000000"));
+    Assert.assertEquals(2, HudiEngine.getCommitsRetainedByTime(new ArrayList<>(), "20220103000000000"));
+  }
+
+  @Test
+  public void testKeepCommitsDefaultsAreNotLowered() {
+    int keepMinCommits = HudiEngine.getKeepMinCommits(5);
+    Assert.assertEquals(HudiEngine.HUDI_KEEP_MIN_COMMITS_DEFAULT, keepMinCommits);
+    Assert.assertEquals(HudiEngine.HUDI_KEEP_MAX_COMMITS_DEFAULT, HudiEngine.getKeepMaxCommits(keepMinCommits));
+  }
+
+  @Test
+  public void testKeepCommitsRaisedAboveCommitsRetained() {
+    int keepMinCommits = HudiEngine.getKeepMinCommits(50);
+    Assert.assertEquals(51, keepMinCommits);
+    Assert.assertEquals(61, HudiEngine.getKeepMaxCommits(keepMinCommits));
+  }
+
+  @Test
+  public void testBackfillMarkers() throws Exception {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    String location = Files.createTempDirectory("hsfs-table").toUri().toString();
+    Path markerDir = HudiEngine.getBackfillMarkerDir(location, "backfill/2022");
+    Assert.assertEquals(new Path(location, ".hsfs/backfill"), markerDir.getParent());
+    Assert.assertTrue(HudiEngine.readBackfillMarkers(fs, markerDir).isEmpty());
+
+    HudiEngine.writeBackfillMarker(fs, markerDir, "year=2022/day=2022-01-01");
+    HudiEngine.writeBackfillMarker(fs, markerDir, "3/16");
+    HudiEngine.writeBackfillMarker(fs, markerDir, "3/16");
+    Assert.assertEquals(new HashSet<>(Arrays.asList("year=2022/day=2022-01-01", "3/16")),
+        HudiEngine.readBackfillMarkers(fs, markerDir));
+    // backfills are tracked separately
+    Assert.assertTrue(HudiEngine.readBackfillMarkers(fs, HudiEngine.getBackfillMarkerDir(location, "other")).isEmpty());
+    fs.delete(new Path(location), true);
+  }
+
+  @Test
+  public void testMetadataTableExists() throws Exception {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    String location = Files.createTempDirectory("hsfs-table").toUri().toString();
+    fs.mkdirs(new Path(location, ".hoodie"));
+    Assert.assertFalse(HudiEngine.metadataTableExists(fs, location));
+    fs.mkdirs(new Path(location, ".hoodie/metadata"));
+    Assert.assertTrue(HudiEngine.metadataTableExists(fs, location));
+    fs.delete(new Path(location), true);
+  }
+
+  @Test
+  public void testMetadataTableUsage() {
+    // readers only list through an existing metadata table they are configured to use
+    Assert.assertTrue(HudiEngine.readsMetadataTable(true, true));
+    Assert.assertFalse(HudiEngine.readsMetadataTable(true, false));
+    Assert.assertFalse(HudiEngine.readsMetadataTable(false, true));
+    // writers keep an existing metadata table up to date even if they are not configured to use it
+    Assert.assertTrue(HudiEngine.writesMetadataTable(false, true));
+    Assert.assertTrue(HudiEngine.writesMetadataTable(true, false));
+    Assert.assertFalse(HudiEngine.writesMetadataTable(false, false));
+  }
+
+  @Test
+  public void testIsBloomIndex() {
+    // tables without an index type use the bloom index
+    Assert.assertTrue(HudiEngine.isBloomIndex(null));
+    Assert.assertTrue(HudiEngine.isBloomIndex(HudiIndexType.BLOOM.name()));
+    Assert.assertTrue(HudiEngine.isBloomIndex(HudiIndexType.GLOBAL_BLOOM.name()));
+    Assert.assertFalse(HudiEngine.isBloomIndex(HudiIndexType.SIMPLE.name()));
+    Assert.assertFalse(HudiEngine.isBloomIndex(HudiIndexType.GLOBAL_SIMPLE.name()));
+  }
+
+  @Test
+  public void testGetMissingFeatures() {
+    List<Feature> features = Arrays.asList(new Feature("id", "int"), new Feature("Amount", "double"),
+        new Feature("appended", "string"));
+    List<Feature> missing = HudiEngine.getMissingFeatures(new String[] {"_hoodie_commit_time", "id", "amount"},
+        features);
+    Assert.assertEquals(1, missing.size());
+    Assert.assertEquals("appended", missing.get(0).getName());
+    Assert.assertTrue(HudiEngine.getMissingFeatures(new String[] {"id"}, null).isEmpty());
+  }
+
+  private HoodieWriteStat writeStat(String prevCommit) {
+    HoodieWriteStat writeStat = new HoodieWriteStat();
+    writeStat.setPrevCommit(prevCommit);
+    return writeStat;
+  }
+
+  @Test
+  public void testGetPartitionsWithNewFileGroups() {
+    HoodieCommitMetadata commitMetadata = new HoodieCommitMetadata();
+    commitMetadata.addWriteStat("day=1", writeStat(HoodieWriteStat.NULL_COMMIT));
+    commitMetadata.addWriteStat("day=2", writeStat(HoodieWriteStat.NULL_COMMIT));
+    commitMetadata.addWriteStat("day=2", writeStat("001"));
+    commitMetadata.addWriteStat("day=3", writeStat(null));
+    Assert.assertEquals(new HashSet<>(Arrays.asList("day=1", "day=3")),
+        HudiEngine.getPartitionsWithNewFileGroups(commitMetadata));
+
+    // non partitioned tables have no partitions to sync
+    HoodieCommitMetadata nonPartitioned = new HoodieCommitMetadata();
+    nonPartitioned.addWriteStat("", writeStat(HoodieWriteStat.NULL_COMMIT));
+    Assert.assertTrue(HudiEngine.getPartitionsWithNewFileGroups(nonPartitioned).isEmpty());
+  }
+
+  @Test
+  public void testIsNewPartition() throws Exception {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Path basePath = new Path(Files.createTempDirectory("hsfs-table").toUri());
+    Path partitionPath = new Path(basePath, "day=1");
+    fs.mkdirs(partitionPath);
+    Assert.assertTrue(HudiEngine.isNewPartition(fs, partitionPath, "002"));
+    new HoodiePartitionMetadata(fs, "002", basePath, partitionPath).trySave(0);
+    Assert.assertTrue(HudiEngine.isNewPartition(fs, partitionPath, "002"));
+    Assert.assertFalse(HudiEngine.isNewPartition(fs, partitionPath, "003"));
+    fs.delete(basePath, true);
+  }
+
+  @Test
+  public void testHasNewColumns() {
+    String schema = "{\"type\":\"record\",\"name\":\"fg\",\"fields\":[{\"name\":\"id\",\"type\":\"int\"}]}";
+    String evolvedSchema = "{\"type\":\"record\",\"name\":\"fg\",\"fields\":[{\"name\":\"id\",\"type\":\"int\"},"
+        + "{\"name\":\"amount\",\"type\":[\"null\",\"double\"]}]}";
+    Assert.assertFalse(HudiEngine.hasNewColumns(schema, schema));
+    Assert.assertTrue(HudiEngine.hasNewColumns(evolvedSchema, schema));
+    Assert.assertFalse(HudiEngine.hasNewColumns(schema, evolvedSchema));
+    // commits without a schema are synced
+    Assert.assertTrue(HudiEngine.hasNewColumns(schema, null));
+  }
+
+  @Test
+  public void testHiveSyncMarker() throws Exception {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    String location = Files.createTempDirectory("hsfs-table").toUri().toString();
+    Path markerDir = HudiEngine.getHiveSyncMarkerDir(location);
+    Assert.assertNull(HudiEngine.readHiveSyncMarker(fs, markerDir));
+    HudiEngine.writeHiveSyncMarker(fs, markerDir, "001");
+    HudiEngine.writeHiveSyncMarker(fs, markerDir, "003");
+    Assert.assertEquals("003", HudiEngine.readHiveSyncMarker(fs, markerDir));
+    // only the last synced commit is kept
+    Assert.assertEquals(1, fs.listStatus(markerDir).length);
+    fs.delete(new Path(location), true);
+  }
+
+  @Test
+  public void testGetKeyValues() {
+    List<Row> keys = Arrays.asList(RowFactory.create(1, "2022-01-01"), RowFactory.create(2, "2022-01-01"),
+        RowFactory.create(3, null));
+    Map<String, Set<Object>> keyValues = HudiEngine.getKeyValues(Arrays.asList("id", "day"), keys);
+    Assert.assertEquals(new HashSet<>(Arrays.asList(1, 2, 3)), keyValues.get("id"));
+    // a column with null keys can't be filtered with IN
+    Assert.assertFalse(keyValues.containsKey("day"));
+    Assert.assertTrue(HudiEngine.getKeyValues(Collections.singletonList("id"), Collections.emptyList()).get("id")
+        .isEmpty());
+  }
+}
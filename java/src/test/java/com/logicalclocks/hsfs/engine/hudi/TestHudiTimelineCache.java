@@ -0,0 +1,86 @@
+/*
+ *  Copyright (c) 2022. Logical Clocks AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package com.logicalclocks.hsfs.engine.hudi;
+
+import org.apache.hudi.common.table.timeline.HoodieInstant;
+import org.apache.hudi.common.table.timeline.HoodieTimeline;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class TestHudiTimelineCache {
+
+  private HoodieInstant instant(HoodieInstant.State state, String action, String timestamp) {
+    return new HoodieInstant(state, action, timestamp);
+  }
+
+  private List<String> timestamps(List<HoodieInstant> instants) {
+    return instants.stream().map(HoodieInstant::getTimestamp).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testGetNewCommitsAfterLastCommit() {
+    Set<String> pending = new HashSet<>();
+    List<HoodieInstant> instants = Arrays.asList(
+        instant(HoodieInstant.State.COMPLETED, HoodieTimeline.COMMIT_ACTION, "001"),
+        instant(HoodieInstant.State.COMPLETED, HoodieTimeline.COMMIT_ACTION, "002"),
+        instant(HoodieInstant.State.COMPLETED, HoodieTimeline.DELTA_COMMIT_ACTION, "003"),
+        instant(HoodieInstant.State.COMPLETED, HoodieTimeline.CLEAN_ACTION, "004"),
+        instant(HoodieInstant.State.INFLIGHT, HoodieTimeline.COMMIT_ACTION, "005"));
+    Assert.assertEquals(Arrays.asList("002", "003"), timestamps(HudiTimelineCache.getNewCommits(instants, "001",
+        pending)));
+    // the inflight commit is picked up once it completes
+    Assert.assertEquals(Collections.singleton("005"), pending);
+  }
+
+  @Test
+  public void testGetNewCommitsCompletedOutOfOrder() {
+    // compaction scheduled before the last cached delta commit
+    Set<String> pending = new HashSet<>(Collections.singleton("002"));
+    List<HoodieInstant> instants = Arrays.asList(
+        instant(HoodieInstant.State.COMPLETED, HoodieTimeline.COMMIT_ACTION, "002"),
+        instant(HoodieInstant.State.COMPLETED, HoodieTimeline.DELTA_COMMIT_ACTION, "003"));
+    Assert.assertEquals(Collections.singletonList("002"), timestamps(HudiTimelineCache.getNewCommits(instants, "003",
+        pending)));
+    Assert.assertTrue(pending.isEmpty());
+  }
+
+  @Test
+  public void testGetNewCommitsPendingCompaction() {
+    Set<String> pending = new HashSet<>();
+    List<HoodieInstant> instants = Arrays.asList(
+        instant(HoodieInstant.State.COMPLETED, HoodieTimeline.DELTA_COMMIT_ACTION, "001"),
+        instant(HoodieInstant.State.REQUESTED, HoodieTimeline.COMPACTION_ACTION, "002"));
+    Assert.assertTrue(HudiTimelineCache.getNewCommits(instants, "001", pending).isEmpty());
+    Assert.assertEquals(Collections.singleton("002"), pending);
+  }
+
+  @Test
+  public void testGetNewCommitsEmptyTimeline() {
+    Set<String> pending = new HashSet<>();
+    List<HoodieInstant> instants = Collections.singletonList(
+        instant(HoodieInstant.State.COMPLETED, HoodieTimeline.COMMIT_ACTION, "001"));
+    Assert.assertEquals(Collections.singletonList("001"), timestamps(HudiTimelineCache.getNewCommits(instants, null,
+        pending)));
+  }
+}
@@ -37,7 +37,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class MainClass {
@@ -95,6 +97,20 @@ public class MainClass {
 
     if (op.equals("offline_fg_backfill")) {
       SparkEngine.getInstance().streamToHudiTable(streamFeatureGroup, writeOptions);
+    } else if (op.equals("offline_fg_compaction")) {
+      streamFeatureGroup.compact(writeOptions);
+    } else if (op.equals("offline_fg_clustering")) {
+      Object sortColumns = jobConf.get("sort_columns");
+      if (sortColumns instanceof String) {
+        sortColumns = Arrays.asList(((String) sortColumns).split(","));
+      } else if (sortColumns != null && !(sortColumns instanceof List)) {
+        throw new IllegalArgumentException("sort_columns should be a list of column names");
+      }
+      Object targetFileSize = jobConf.get("target_file_size");
+      streamFeatureGroup.cluster((List<String>) sortColumns,
+          targetFileSize != null ? Long.parseLong(targetFileSize.toString()) : null, writeOptions);
+    } else if (op.equals("offline_fg_cleaning")) {
+      streamFeatureGroup.clean(writeOptions);
     }
   }
 }